@@ -0,0 +1,255 @@
+package ws.regga.codegen.benchmarks;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.samskivert.mustache.Mustache;
+import com.samskivert.mustache.Template;
+
+import io.swagger.codegen.CodegenOperation;
+import io.swagger.models.HttpMethod;
+import io.swagger.models.Operation;
+import io.swagger.models.Path;
+import io.swagger.models.Swagger;
+import ws.regga.codegen.slate.SlateCodegen;
+import ws.regga.codegen.util.ReggaJson;
+import ws.regga.codegen.util.ReggaPrettifyCache;
+import ws.regga.codegen.util.ReggaSpecSource;
+
+/**
+ * Hot paths of the generator on a synthetic spec (see {@link SyntheticSpec}).
+ *
+ * Run with: java -jar benchmarks/target/benchmarks.jar -prof gc
+ * to get the allocation rate next to the throughput.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SlateCodegenBenchmark {
+
+	private static final String LOCATION = "synthetic.json";
+
+	@State(Scope.Benchmark)
+	public static class Spec {
+		@Param({ "10" })
+		public int tags;
+		@Param({ "20" })
+		public int operations;
+		@Param({ "5" })
+		public int sniplets;
+
+		byte[] data;
+
+		@Setup(Level.Trial)
+		public void setUp() throws Exception {
+			data = SyntheticSpec.generate(tags, operations, sniplets);
+		}
+
+		// a new source parses the spec again
+		ReggaSpecSource source() {
+			return new ReggaSpecSource(LOCATION, data);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Preprocess {
+		@Param({ "false", "true" })
+		public boolean keepOriginalOrder;
+
+		SlateCodegen codegen;
+		Swagger swagger;
+
+		@Setup(Level.Trial)
+		public void setUp(Spec spec) throws Exception {
+			ReggaSpecSource source = spec.source();
+			swagger = source.getSwagger();
+			codegen = codegen(source, keepOriginalOrder);
+			codegen.processOpts();
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Operations {
+		Swagger swagger;
+		ReggaSpecSource source;
+		SlateCodegen codegen;
+		List<Map<String, Object>> apis;
+
+		@Setup(Level.Trial)
+		public void setUpSpec(Spec spec) throws Exception {
+			source = spec.source();
+			swagger = source.getSwagger();
+		}
+
+		// sniplets are registered once per codegen, each invocation needs its own
+		@Setup(Level.Invocation)
+		public void setUp() throws Exception {
+			codegen = codegen(source, false);
+			codegen.processOpts();
+			codegen.preprocessSwagger(swagger);
+			apis = apis(codegen, swagger);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Examples {
+		Template template;
+		Map<String, Object> context;
+
+		@Setup(Level.Trial)
+		public void setUp(Spec spec) throws Exception {
+			ReggaSpecSource source = spec.source();
+			Swagger swagger = source.getSwagger();
+			SlateCodegen codegen = codegen(source, false);
+			codegen.processOpts();
+			codegen.preprocessSwagger(swagger);
+			List<Map<String, Object>> apis = apis(codegen, swagger);
+			for (Map<String, Object> api : apis) {
+				codegen.postProcessOperations(api);
+			}
+			// the lambdas read the run context, built when the supporting files are about to be rendered
+			Map<String, Object> apiInfo = new HashMap<String, Object>();
+			apiInfo.put("apis", apis);
+			Map<String, Object> bundle = new HashMap<String, Object>();
+			bundle.put("apiInfo", apiInfo);
+			bundle.put("models", new ArrayList<Object>());
+			codegen.postProcessSupportingFileData(bundle);
+			context = new HashMap<String, Object>(codegen.additionalProperties());
+			context.put("apis", apis);
+			template = Mustache.compiler().escapeHTML(false).defaultValue("")
+				.compile("{{#apis}}{{#operations}}{{#operation}}{{#fnParseExamples}}{{/fnParseExamples}}{{/operation}}{{/operations}}{{/apis}}");
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Bodies {
+		String[] bodies;
+		ReggaPrettifyCache cache;
+		int next;
+
+		@Setup(Level.Trial)
+		public void setUp() throws Exception {
+			bodies = new String[256];
+			for (int i = 0; i < bodies.length; i++) {
+				bodies[i] = SyntheticSpec.body(i);
+			}
+			cache = new ReggaPrettifyCache();
+		}
+
+		String next() {
+			return bodies[next++ & (bodies.length - 1)];
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Render {
+		SlateCodegen codegen;
+		Swagger swagger;
+		File outputDir;
+
+		@Setup(Level.Invocation)
+		public void setUp(Spec spec) throws Exception {
+			ReggaSpecSource source = spec.source();
+			swagger = source.getSwagger();
+			outputDir = Files.createTempDirectory("slate-benchmark").toFile();
+			codegen = codegen(source, false);
+			codegen.setOutputDir(outputDir.getAbsolutePath());
+		}
+
+		@TearDown(Level.Invocation)
+		public void tearDown() throws Exception {
+			FileUtils.deleteDirectory(outputDir);
+		}
+	}
+
+	@Benchmark
+	public void preprocessSwagger(Preprocess state) {
+		state.codegen.preprocessSwagger(state.swagger);
+	}
+
+	@Benchmark
+	public void postProcessOperations(Operations state, Blackhole blackhole) {
+		for (Map<String, Object> api : state.apis) {
+			blackhole.consume(state.codegen.postProcessOperations(api));
+		}
+	}
+
+	// prettified bodies are cached after the first invocation, see prettify for the uncached cost
+	@Benchmark
+	public void fnParseExamples(Examples state) {
+		state.template.execute(state.context, new NullWriter());
+	}
+
+	@Benchmark
+	public String prettify(Bodies state) throws Exception {
+		return ReggaJson.prettify(state.next());
+	}
+
+	@Benchmark
+	public String prettifyCached(Bodies state) throws Exception {
+		return state.cache.prettify(state.next());
+	}
+
+	// whole generation, index.html.md written to a temporary directory
+	@Benchmark
+	public void render(Render state, Blackhole blackhole) {
+		blackhole.consume(state.codegen.generate(state.swagger));
+	}
+
+	private static SlateCodegen codegen(ReggaSpecSource source, boolean keepOriginalOrder) {
+		SlateCodegen codegen = new SlateCodegen();
+		codegen.setInputSpec(source.getLocation());
+		codegen.setSpecSource(source);
+		codegen.additionalProperties().put("exampleLanguages", "shell");
+		codegen.additionalProperties().put("keepOriginalOrder", String.valueOf(keepOriginalOrder));
+		return codegen;
+	}
+
+	// operations grouped by tag, as DefaultGenerator passes them to postProcessOperations
+	private static List<Map<String, Object>> apis(SlateCodegen codegen, Swagger swagger) {
+		Map<String, List<CodegenOperation>> operationsByTag = new TreeMap<String, List<CodegenOperation>>();
+		for (Map.Entry<String, Path> path : swagger.getPaths().entrySet()) {
+			for (Map.Entry<HttpMethod, Operation> operation : path.getValue().getOperationMap().entrySet()) {
+				String tag = codegen.sanitizeTag(operation.getValue().getTags().get(0));
+				if (operationsByTag.get(tag) == null) operationsByTag.put(tag, new ArrayList<CodegenOperation>());
+				operationsByTag.get(tag).add(codegen.fromOperation(path.getKey(), operation.getKey().toString().toLowerCase(),
+					operation.getValue(), swagger.getDefinitions(), swagger));
+			}
+		}
+		List<Map<String, Object>> apis = new ArrayList<Map<String, Object>>();
+		for (Map.Entry<String, List<CodegenOperation>> tag : operationsByTag.entrySet()) {
+			Map<String, Object> operations = new HashMap<String, Object>();
+			operations.put("classname", codegen.toApiName(tag.getKey()));
+			operations.put("operation", tag.getValue());
+			Map<String, Object> api = new HashMap<String, Object>();
+			api.put("operations", operations);
+			apis.add(api);
+		}
+		return apis;
+	}
+}
@@ -0,0 +1,101 @@
+package ws.regga.codegen.benchmarks;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Swagger spec with N tags, M operations per tag and K Regga Sniplets per operation, responses use nested models.
+ *
+ * Tags and paths are declared in reverse alphabetical order so that keepOriginalOrder has work to do.
+ * Usage: java -cp benchmarks.jar ws.regga.codegen.benchmarks.SyntheticSpec tags operations sniplets out.json
+ */
+public class SyntheticSpec {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+	private static final int MODELS = 8;
+
+	public static byte[] generate(int tags, int operations, int sniplets) throws Exception {
+		ObjectNode spec = MAPPER.createObjectNode();
+		spec.put("swagger", "2.0");
+		spec.putObject("info").put("title", "Synthetic API").put("version", "1.0.0").put("description", "Synthetic spec for benchmarks");
+		spec.put("host", "api.example.com");
+		spec.put("basePath", "/v1");
+		spec.putArray("schemes").add("https");
+		spec.putObject("securityDefinitions").putObject("key").put("type", "apiKey").put("name", "X-Api-Key").put("in", "header");
+
+		ArrayNode tagList = spec.putArray("tags");
+		ObjectNode paths = spec.putObject("paths");
+		int id = 0;
+		for (int t = tags - 1; t >= 0; t--) {
+			tagList.addObject().put("name", "Tag" + t).put("description", "Operations of tag " + t);
+			for (int o = operations - 1; o >= 0; o--) {
+				String path = "/tag" + t + "/resources" + o + "/{id}";
+				String method = o % 2 == 0 ? "get" : "post";
+				String model = "Model" + (o % MODELS);
+				ObjectNode operation = paths.putObject(path).putObject(method);
+				operation.putArray("tags").add("Tag" + t);
+				operation.put("summary", "Operation " + o + " of tag " + t);
+				operation.put("operationId", method + "Tag" + t + "Resource" + o);
+				operation.putArray("produces").add("application/json");
+				operation.putArray("security").addObject().putArray("key").add("read").add("write");
+				ArrayNode parameters = operation.putArray("parameters");
+				parameters.addObject().put("name", "id").put("in", "path").put("required", true).put("type", "string");
+				parameters.addObject().put("name", "limit").put("in", "query").put("type", "integer");
+				if (method.equals("post")) {
+					parameters.addObject().put("name", "body").put("in", "body").putObject("schema").put("$ref", "#/definitions/" + model);
+				}
+				ObjectNode responses = operation.putObject("responses");
+				ObjectNode success = responses.putObject("200").put("description", "ok");
+				success.putObject("schema").put("$ref", "#/definitions/" + model);
+				ArrayNode examples = success.putObject("examples").putArray("application/json");
+				for (int s = 0; s < sniplets; s++) {
+					ObjectNode response = examples.addObject();
+					response.put("x-regga-type", "sniplet");
+					response.put("id", "response" + id);
+					response.put("title", "Example " + s + " of operation " + o);
+					response.put("data", body(id));
+					ObjectNode request = response.putObject("requestSniplet");
+					request.put("id", "request" + id);
+					request.put("uri", "/tag" + t + "/resources" + o + "/" + s + "?limit=10&offset=" + s);
+					request.putObject("headers").put("X-Api-Key", "secret").put("X-Trace", "trace" + id);
+					if (method.equals("post")) request.put("data", body(id + 1));
+					id++;
+				}
+				responses.putObject("404").put("description", "not found");
+			}
+		}
+
+		// each model nests the next one and an array of the one after
+		ObjectNode definitions = spec.putObject("definitions");
+		for (int m = 0; m < MODELS; m++) {
+			ObjectNode model = definitions.putObject("Model" + m).put("type", "object");
+			model.putArray("required").add("id");
+			ObjectNode properties = model.putObject("properties");
+			properties.putObject("id").put("type", "integer").put("format", "int64");
+			properties.putObject("name").put("type", "string");
+			properties.putObject("child").put("$ref", "#/definitions/Model" + ((m + 1) % MODELS));
+			properties.putObject("items").put("type", "array").putObject("items").put("$ref", "#/definitions/Model" + ((m + 2) % MODELS));
+		}
+		return MAPPER.writeValueAsBytes(spec);
+	}
+
+	static String body(int id) throws Exception {
+		ObjectNode body = MAPPER.createObjectNode();
+		body.put("id", id);
+		body.put("name", "resource " + id);
+		body.put("price", 12.50);
+		body.putArray("tags").add("a").add("b").add("c");
+		ObjectNode child = body.putObject("child").put("id", id + 1).put("name", "child of " + id);
+		child.putArray("items").addObject().put("id", id + 2).put("name", "item");
+		return MAPPER.writeValueAsString(body);
+	}
+
+	public static void main(String[] args) throws Exception {
+		byte[] spec = generate(Integer.parseInt(args[0]), Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+		Files.write(new File(args[3]).toPath(), spec);
+	}
+}
@@ -0,0 +1,150 @@
+package ws.regga.codegen.slate;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.text.Normalizer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Anchors of the resources headers, computed once with the rules Slate uses to generate header ids
+ * (UniqueHeadCounter: html tags stripped, ActiveSupport parameterize, -N suffix for repeated ids within a document).
+ *
+ * Anchors are shared by all the links to a resource, their slug is known once the headers of the
+ * whole document have been counted, see {@link #count(String)}. They are frozen before rendering,
+ * the slugs are then read-only and can be read from any thread.
+ */
+class SlateAnchors {
+
+	static final String VENDOR_EXTENSION = "x-slate-anchor";
+
+	static final class Anchor {
+		private String slug;
+
+		private Anchor(String slug) {
+			this.slug = slug;
+		}
+
+		@Override
+		public String toString() {
+			return slug;
+		}
+	}
+
+	private final Map<String, Anchor> anchors = new HashMap<String, Anchor>();
+	private final Map<String, Integer> headCount = new HashMap<String, Integer>();
+	private String fingerprint; // set once frozen
+
+	/**
+	 * Returns the anchor of the header with the given text, shared by all links to it.
+	 */
+	synchronized Anchor get(String text) {
+		checkNotFrozen();
+		Anchor anchor = anchors.get(text);
+		if (anchor == null) {
+			anchor = new Anchor(slug(text));
+			anchors.put(text, anchor);
+		}
+		return anchor;
+	}
+
+	/**
+	 * Starts counting the headers of a new document, Slate counts them per rendered file.
+	 */
+	synchronized void newDocument() {
+		headCount.clear();
+	}
+
+	/**
+	 * Counts a header of the document, in document order, and returns its id.
+	 * The anchor of the header, if any, is updated with it.
+	 */
+	synchronized String count(String text) {
+		String id = countHeader(text);
+		Anchor anchor = anchors.get(text);
+		if (anchor != null) anchor.slug = id;
+		return id;
+	}
+
+	/**
+	 * Counts a header that is not the one of a resource, in document order, and returns its id.
+	 * Anchors are left unchanged, even when the header has the text of a resource.
+	 */
+	synchronized String countHeader(String text) {
+		checkNotFrozen();
+		String id = slug(text);
+		Integer count = headCount.get(id);
+		count = count == null ? 1 : count + 1;
+		headCount.put(id, count);
+		if (count > 1) id += "-" + count;
+		return id;
+	}
+
+	/**
+	 * Ends the counting of the headers, no anchor can be added or changed afterwards.
+	 */
+	synchronized void freeze() {
+		StringBuilder fingerprint = new StringBuilder();
+		for (Map.Entry<String, Anchor> entry : new TreeMap<String, Anchor>(anchors).entrySet()) {
+			fingerprint.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+		}
+		this.fingerprint = fingerprint.toString();
+	}
+
+	/**
+	 * Resolved slugs of all the anchors, a change in one of them changes the links of every section.
+	 */
+	synchronized String fingerprint() {
+		if (fingerprint == null) throw new IllegalStateException("Anchors are not frozen yet");
+		return fingerprint;
+	}
+
+	private void checkNotFrozen() {
+		if (fingerprint != null) throw new IllegalStateException("Anchors cannot change once rendering started");
+	}
+
+	static String slug(String text) {
+		String html = escapeHtml(text).replaceAll("<[^>]*>", "");
+		String friendly = parameterize(html);
+		if (friendly.trim().isEmpty()) {
+			// parameterize removed everything (e.g. chinese or russian text)
+			friendly = sha1Hex(html).substring(0, 10);
+		}
+		return friendly;
+	}
+
+	// redcarpet escapes text but keeps inline html tags
+	private static String escapeHtml(String text) {
+		StringBuilder html = new StringBuilder(text.length());
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '&') html.append("&amp;");
+			else if (c == '"') html.append("&quot;");
+			else if (c == '\'') html.append("&#39;");
+			else if (c == '<' && text.indexOf('>', i) < 0) html.append("&lt;");
+			else if (c == '>' && text.lastIndexOf('<', i) < 0) html.append("&gt;");
+			else html.append(c);
+		}
+		return html.toString();
+	}
+
+	// ActiveSupport's String#parameterize
+	private static String parameterize(String text) {
+		String ascii = Normalizer.normalize(text, Normalizer.Form.NFD).replaceAll("\\p{M}+", "").replaceAll("[^\\p{ASCII}]", "?");
+		return ascii.replaceAll("[^a-zA-Z0-9\\-_]+", "-").replaceAll("-{2,}", "-").replaceAll("^-|-$", "").toLowerCase();
+	}
+
+	private static String sha1Hex(String text) {
+		try {
+			StringBuilder hex = new StringBuilder();
+			for (byte b : MessageDigest.getInstance("SHA-1").digest(text.getBytes(StandardCharsets.UTF_8))) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		}
+		catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,232 @@
+package ws.regga.codegen.slate;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.swagger.codegen.CodegenConstants;
+import ws.regga.codegen.util.ReggaJson;
+import ws.regga.codegen.util.ReggaSpecSource;
+import ws.regga.codegen.util.ReggaTemplateCache;
+
+/**
+ * Generation of the documentation of many specs in one JVM, on a bounded number of threads.
+ *
+ * Each spec gets its own codegen and generator, only the compiled templates are shared (see {@link ReggaTemplateCache}).
+ * The documentation of a spec is written to a directory of the output directory named after the spec file,
+ * a summary of the timings and failures is written to regga-batch.json.
+ *
+ * Usage: java -cp ... ws.regga.codegen.slate.SlateBatch -o output-dir [-t template-dir] [-j threads] [option=value...] spec-or-dir...
+ */
+public class SlateBatch {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SlateBatch.class);
+
+	public static final String SUMMARY = "regga-batch.json";
+
+	private final List<String> inputSpecs;
+	private final File outputDir;
+	private final String templateDir;
+	private final Map<String, Object> options;
+	private final ReggaTemplateCache templateCache;
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Outcome of the generation of one spec.
+	 */
+	public static class Result {
+		public final String inputSpec;
+		public final String outputDir;
+		public long millis;
+		public String error;
+		public Map<String, Object> metrics;
+
+		Result(String inputSpec, String outputDir) {
+			this.inputSpec = inputSpec;
+			this.outputDir = outputDir;
+		}
+
+		public boolean isSuccess() {
+			return error == null;
+		}
+	}
+
+	/**
+	 * @param inputSpecs spec files, directories are replaced by the json and yaml files they contain
+	 * @param templateDir custom template directory, null for the embedded templates
+	 * @param options generator options, the same for all the specs
+	 */
+	public SlateBatch(List<String> inputSpecs, String outputDir, String templateDir, Map<String, Object> options) {
+		this.inputSpecs = new ArrayList<String>();
+		for (String inputSpec : inputSpecs) {
+			File dir = new File(inputSpec);
+			if (dir.isDirectory()) this.inputSpecs.addAll(specs(dir));
+			else this.inputSpecs.add(inputSpec);
+		}
+		this.outputDir = new File(outputDir);
+		this.templateDir = templateDir;
+		this.options = new LinkedHashMap<String, Object>(options);
+		// a batch never blocks on a single spec
+		this.options.remove("watch");
+		this.templateCache = new ReggaTemplateCache(templateDir, new SlateCodegen().embeddedTemplateDir());
+	}
+
+	public void setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Generates all the specs and writes the summary, failures are reported in the results.
+	 */
+	public List<Result> run() throws InterruptedException, IOException {
+		long start = System.nanoTime();
+		List<Result> results = new ArrayList<Result>();
+		List<Future<Result>> futures = new ArrayList<Future<Result>>();
+		Set<String> names = new HashSet<String>();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, inputSpecs.size())));
+		try {
+			for (final String inputSpec : inputSpecs) {
+				final Result result = new Result(inputSpec, new File(outputDir, uniqueName(inputSpec, names)).getPath());
+				results.add(result);
+				futures.add(executor.submit(new Callable<Result>() {
+					@Override
+					public Result call() {
+						return generate(result);
+					}
+				}));
+			}
+			for (int i = 0; i < futures.size(); i++) {
+				try {
+					futures.get(i).get();
+				}
+				catch (ExecutionException e) {
+					results.get(i).error = String.valueOf(e.getCause());
+				}
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		int failures = 0;
+		for (Result result : results) {
+			if (!result.isSuccess()) failures++;
+		}
+		LOGGER.info("Generated " + (results.size() - failures) + " of " + results.size() + " specs in " + millis + " ms, " + templateCache);
+		writeSummary(results, millis, failures);
+		return results;
+	}
+
+	private Result generate(Result result) {
+		long start = System.nanoTime();
+		try {
+			ReggaSpecSource source = ReggaSpecSource.load(result.inputSpec, null);
+
+			SlateCodegen codegen = new SlateCodegen();
+			codegen.setInputSpec(result.inputSpec);
+			codegen.setOutputDir(result.outputDir);
+			codegen.additionalProperties().putAll(options);
+			if (templateDir != null) codegen.additionalProperties().put(CodegenConstants.TEMPLATE_DIR, templateDir);
+			codegen.setSpecSource(source);
+			codegen.setTemplateCache(templateCache);
+
+			codegen.generate(source.getSwagger());
+			result.metrics = codegen.getMetrics().toReport();
+		}
+		catch (Exception e) {
+			LOGGER.error("Could not generate " + result.outputDir + " from " + result.inputSpec, e);
+			result.error = String.valueOf(e);
+		}
+		result.millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		return result;
+	}
+
+	private void writeSummary(List<Result> results, long millis, int failures) throws IOException {
+		Map<String, Object> summary = new LinkedHashMap<String, Object>();
+		summary.put("specs", results.size());
+		summary.put("failures", failures);
+		summary.put("threads", threads);
+		summary.put("ms", millis);
+		Map<String, Object> templates = new LinkedHashMap<String, Object>();
+		templates.put("compiled", templateCache.getMisses());
+		templates.put("shared", templateCache.getHits());
+		summary.put("templates", templates);
+		List<Object> runs = new ArrayList<Object>();
+		for (Result result : results) {
+			Map<String, Object> run = new LinkedHashMap<String, Object>();
+			run.put("inputSpec", result.inputSpec);
+			run.put("outputDir", result.outputDir);
+			run.put("ms", result.millis);
+			if (result.error != null) run.put("error", result.error);
+			if (result.metrics != null) run.put("metrics", result.metrics);
+			runs.add(run);
+		}
+		summary.put("runs", runs);
+		if (!outputDir.isDirectory() && !outputDir.mkdirs()) throw new IOException("Could not create " + outputDir);
+		ReggaJson.PRETTY_WRITER.writeValue(new File(outputDir, SUMMARY), summary);
+	}
+
+	// json and yaml files of the directory, in name order
+	private static List<String> specs(File dir) {
+		List<String> specs = new ArrayList<String>();
+		File[] files = dir.listFiles();
+		if (files == null) return specs;
+		Arrays.sort(files);
+		for (File file : files) {
+			String name = file.getName().toLowerCase();
+			if (file.isFile() && (name.endsWith(".json") || name.endsWith(".yaml") || name.endsWith(".yml"))) specs.add(file.getPath());
+		}
+		return specs;
+	}
+
+	// spec file name without extension, suffixed when two specs have the same name
+	private static String uniqueName(String inputSpec, Set<String> names) {
+		String name = inputSpec.replaceAll("[?#].*$", "").replaceAll("^.*[/\\\\]", "").replaceAll("\\.[^.]*$", "");
+		if (name.isEmpty()) name = "spec";
+		String unique = name;
+		for (int i = 2; !names.add(unique); i++) {
+			unique = name + "-" + i;
+		}
+		return unique;
+	}
+
+	public static void main(String[] args) throws Exception {
+		String outputDir = null;
+		String templateDir = null;
+		int threads = Runtime.getRuntime().availableProcessors();
+		List<String> inputSpecs = new ArrayList<String>();
+		Map<String, Object> options = new LinkedHashMap<String, Object>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-o") && i + 1 < args.length) outputDir = args[++i];
+			else if (args[i].equals("-t") && i + 1 < args.length) templateDir = args[++i];
+			else if (args[i].equals("-j") && i + 1 < args.length) threads = Integer.parseInt(args[++i]);
+			else if (args[i].contains("=") && !new File(args[i]).exists()) options.put(args[i].substring(0, args[i].indexOf('=')), args[i].substring(args[i].indexOf('=') + 1));
+			else inputSpecs.add(args[i]);
+		}
+		if (outputDir == null || inputSpecs.isEmpty()) {
+			System.err.println("Usage: SlateBatch -o output-dir [-t template-dir] [-j threads] [option=value...] spec-or-dir...");
+			System.exit(1);
+		}
+		SlateBatch batch = new SlateBatch(inputSpecs, outputDir, templateDir, options);
+		batch.setThreads(threads);
+		for (Result result : batch.run()) {
+			if (!result.isSuccess()) System.exit(2);
+		}
+	}
+}
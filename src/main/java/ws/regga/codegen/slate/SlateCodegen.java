@@ -1,29 +1,43 @@
 package ws.regga.codegen.slate;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.StringTokenizer;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
 import com.samskivert.mustache.Mustache.Compiler;
 import com.samskivert.mustache.Template;
 
 import io.swagger.codegen.CliOption;
+import io.swagger.codegen.CodegenConstants;
 import io.swagger.codegen.CodegenModel;
 import io.swagger.codegen.CodegenOperation;
+import io.swagger.codegen.CodegenParameter;
 import io.swagger.codegen.CodegenProperty;
 import io.swagger.codegen.CodegenResponse;
 import io.swagger.codegen.CodegenSecurity;
 import io.swagger.codegen.CodegenType;
 import io.swagger.codegen.SupportingFile;
-import io.swagger.models.HttpMethod;
+import io.swagger.codegen.ignore.CodegenIgnoreProcessor;
 import io.swagger.models.Operation;
 import io.swagger.models.Swagger;
 import io.swagger.models.Tag;
@@ -31,109 +45,158 @@ import io.swagger.models.properties.ArrayProperty;
 import io.swagger.models.properties.Property;
 import io.swagger.models.properties.RefProperty;
 import ws.regga.codegen.util.ReggaCodegen;
+import ws.regga.codegen.util.ReggaExampleRenderers;
+import ws.regga.codegen.util.ReggaExampleRequest;
+import ws.regga.codegen.util.ReggaFingerprint;
+import ws.regga.codegen.util.ReggaParallelSections;
+import ws.regga.codegen.util.ReggaPayloadStore;
+import ws.regga.codegen.util.ReggaPrettyPrinter;
+import ws.regga.codegen.util.ReggaSectionCache;
+import ws.regga.codegen.util.ReggaSnipletGraph.Exchange;
+import ws.regga.codegen.util.ReggaSnipletGraph.Step;
+import ws.regga.codegen.util.ReggaSnipletGraph.Story;
 
 public class SlateCodegen extends ReggaCodegen {
 
+	// anchors of the resources, shared by all the links to them, one set per run
+	private SlateAnchors anchors = new SlateAnchors();
+	private boolean keepOriginalOrder;
+	// original positions of tags and operations in the spec, set when keepOriginalOrder is enabled
+	private Map<String, Integer> tagPositions;
+	private Map<String, Integer> operationPositions;
+	// built while the headers are counted, set when the searchIndex option is enabled
+	private SlateSearchIndex searchIndex;
+
     public SlateCodegen() {    	
         super();        
         embeddedTemplateDir = "templates";        
         supportingFiles.add(new SupportingFile("index.html.md.mustache", "", "index.html.md"));        
         cliOptions.add(new CliOption("exampleLanguages", "Languages for which examples should be generated"));
         cliOptions.add(new CliOption("keepOriginalOrder", "Preserve original order of tags and operations"));
+        cliOptions.add(new CliOption("splitOutput", "Write each tag and resource group to its own Slate include, index.html.md only lists them"));
+        cliOptions.add(new CliOption("incremental", "Only render again the sections whose tag, sniplets or models changed since the previous run"));
+        cliOptions.add(new CliOption("parallelism", "Number of threads parsing operation examples, or auto (default 1)"));
+        cliOptions.add(new CliOption("parallelRendering", "Number of threads rendering the tag and model sections of index.html.md, or auto (default 1, not used with splitOutput)"));
+        cliOptions.add(new CliOption("payloadSizeLimit", "Size in characters above which example payloads are written once to " + ReggaPayloadStore.DIR + "/<hash> files and shown as a truncated preview with a link (default 0, always inlined)"));
+        cliOptions.add(new CliOption("searchIndex", "Write a prebuilt " + SlateSearchIndex.FILE + " loaded by the page instead of indexing it in the browser with lunr"));
+        cliOptions.add(new CliOption("watch", "Keep running and generate again each time the spec or the template directory changes"));
+        cliOptions.add(new CliOption("metricsReport", "Write the time spent in each generation phase and work counters to " + METRICS_REPORT));
+        cliOptions.add(new CliOption("specCacheDir", "Directory caching remote specs between runs (default <output>/.regga-cache/specs, empty to disable)"));
     }
     
-	private String prettify(Object uglyData) throws Exception {
-		// TODO manage object and xml prettification as well
-		ObjectMapper mapper = new ObjectMapper();
-		mapper.enable(SerializationFeature.INDENT_OUTPUT);
-		Object json = mapper.readValue(uglyData.toString(), Object.class);
-		return mapper.writerWithDefaultPrettyPrinter().writeValueAsString(json);
+	private String prettify(Object uglyData, String contentType) throws Exception {
+		// memoized, a body shared by several sniplets or languages is only parsed and printed once
+		return getRunContext().getPrettifyCache().prettify(uglyData, contentType, getRunContext().getMetrics());
 	}
     
-	private boolean keepOriginalOrder() {
-		return additionalProperties.get("keepOriginalOrder") != null 
-			&& Boolean.valueOf(additionalProperties.get("keepOriginalOrder").toString());
+	private boolean splitOutput() {
+		return additionalProperties.get("splitOutput") != null 
+			&& Boolean.valueOf(additionalProperties.get("splitOutput").toString());
 	}
 	
-	private List<String> exampleLanguages() {
-		List<String> languages = new ArrayList<String>();
-		if (additionalProperties.get("exampleLanguages") != null) {
-			StringTokenizer st = new StringTokenizer(additionalProperties.get("exampleLanguages").toString(), ",");
-			while (st.hasMoreTokens()) {
-				languages.add(st.nextToken());
-			}
-		}
-		return languages;
+	private boolean searchIndexEnabled() {
+		return additionalProperties.get("searchIndex") != null 
+			&& Boolean.valueOf(additionalProperties.get("searchIndex").toString());
 	}
-    
+	
     @Override
     public void preprocessSwagger(Swagger swagger) {
+    	long start = getMetrics().start();
     	super.preprocessSwagger(swagger);
 		
 		try {			
 			// keep tags and operations in the original order
-			// overrides original operationId and tags
-			if (keepOriginalOrder()) {
+			// positions are taken once from the raw spec, apis and operations are sorted with them before rendering
+			if (keepOriginalOrder) {
 				JsonNode swaggerRaw = getSwaggerJsonNode();
-				Iterator<JsonNode> h = swaggerRaw.get("tags").elements();
-				Map<String, String> orderedTags = new HashMap<String, String>();
-				String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZ"; // supports up to 26 tags
-				int count = 0;
-				while (h.hasNext()) {
-					JsonNode node = h.next();
-					String tag = node.get("name").textValue();
-					// tag names should only contain letters
-					// FIXME for now only 26 tags (alphabet size) are supported
-					String newTagName = "Custom" + (count <= 26 ? alphabet.charAt(count) : "Z") + tag;
-					orderedTags.put(tag, newTagName);
-					count++;
-				}
-				for (Tag tag : swagger.getTags()) {
-					tag.setName(orderedTags.get(tag.getName()));
+				long orderStart = getMetrics().start();
+				tagPositions = new HashMap<String, Integer>();
+				if (swaggerRaw.get("tags") != null) {
+					Iterator<JsonNode> h = swaggerRaw.get("tags").elements();
+					while (h.hasNext()) {
+						// tags are sanitized before apis are built from them
+						String tag = sanitizeTag(h.next().path("name").asText());
+						if (!tagPositions.containsKey(tag)) tagPositions.put(tag, tagPositions.size());
+					}
 				}
-				Iterator<String> i = swaggerRaw.get("paths").fieldNames();
-		    	count = 0;
+				operationPositions = new HashMap<String, Integer>();
+				Iterator<Entry<String, JsonNode>> i = swaggerRaw.get("paths").fields();
 				while (i.hasNext()) {
-					count++;
-					String pathKey = i.next();
-		    		Iterator<String> j = swaggerRaw.get("paths").get(pathKey).fieldNames();
+					Entry<String, JsonNode> path = i.next();
+		    		Iterator<String> j = path.getValue().fieldNames();
 					while (j.hasNext()) {
-						count++;
-						String method = j.next();
-			    		Operation operation = swagger.getPath(pathKey).getOperationMap().get(HttpMethod.valueOf(method.toUpperCase()));
-			    		operation.setOperationId("custom" + String.format("%05d", count) + operation.getOperationId());
-			    		ArrayList<String> tags = new ArrayList<String>();
-			    		for (String oldTag : operation.getTags()) {
-			    			tags.add(orderedTags.get(oldTag));
-			    		}
-			    		operation.setTags(tags);
+						operationPositions.put(operationKey(j.next(), path.getKey()), operationPositions.size());
 					}
 				}
+				getMetrics().stop("keepOriginalOrder", orderStart);
 			}
 		} 
 		catch (Exception e) {
-			e.printStackTrace();
+			getMetrics().count("errors");
+			LOGGER.error("Could not read the original order of tags and operations", e);
 		}
+		getMetrics().stop("preprocessSwagger", start);
     }
 
    	@Override
     public void processOpts() {
         super.processOpts();
+        anchors = new SlateAnchors();
+        tagPositions = null;
+        operationPositions = null;
+        searchIndex = null;
         
-        additionalProperties.put("fnLowerCase", new CustomLambda() {			
+        keepOriginalOrder = additionalProperties.get("keepOriginalOrder") != null 
+        	&& Boolean.valueOf(additionalProperties.get("keepOriginalOrder").toString());
+        
+        // boolean rather than the configured string, so that the templates can test it
+        additionalProperties.put("splitOutput", splitOutput());
+        additionalProperties.put("searchIndex", searchIndexEnabled());
+        
+        // the codegen may be reused with other options, the search files are only listed when enabled
+        Iterator<SupportingFile> files = supportingFiles.iterator();
+        while (files.hasNext()) {
+        	String destination = files.next().destinationFilename;
+        	if (destination.equals(SlateSearchIndex.FILE) || destination.equals(SlateSearchIndex.SCRIPT)) files.remove();
+        }
+        if (searchIndexEnabled()) {
+        	supportingFiles.add(new SupportingFile(SlateSearchIndex.FILE + ".mustache", "", SlateSearchIndex.FILE));
+        	supportingFiles.add(new SupportingFile(SlateSearchIndex.SCRIPT, "", SlateSearchIndex.SCRIPT));
+        }
+        
+        additionalProperties.put("fnLowerCase", getMetrics().timed("fnLowerCase", new StreamingLambda() {			
 			@Override
-			public String getOutput(Template.Fragment frag) {
-	            StringWriter tempWriter = new StringWriter();
-	            frag.execute(tempWriter);				
-				return tempWriter.toString().toLowerCase();
+			public void write(Template.Fragment frag, Writer out) throws IOException {
+				// lower cased while written, no intermediate string
+	            frag.execute(new LowerCaseWriter(out));
 			}
-		});
+		}));
         
-        additionalProperties.put("fnParseExamples", new CustomLambda() {			
+        additionalProperties.put("fnSection", getMetrics().timed("fnSection", new StreamingLambda() {
+			@Override
+			public void write(final Template.Fragment frag, Writer out) throws IOException {
+				final ReggaSectionCache sectionCache = getSectionCache();
+				final String fingerprint = sectionCache != null ? sectionFingerprint(frag.context()) : null;
+				ReggaParallelSections parallelSections = getRunContext().getParallelSections();
+				if (parallelSections != null && !parallelSections.isRenderingThread()) {
+					// rendered on the pool, the placeholder is replaced once the file is written
+					out.write(parallelSections.defer(new Callable<String>() {
+						@Override
+						public String call() throws Exception {
+							StringWriter section = new StringWriter();
+							renderSection(frag, sectionCache, fingerprint, section);
+							return section.toString();
+						}
+					}));
+				}
+				else renderSection(frag, sectionCache, fingerprint, out);
+			}
+		}));
+        
+        additionalProperties.put("fnParseExamples", getMetrics().timed("fnParseExamples", new StreamingLambda() {			
         	@Override
-			public String getOutput(Template.Fragment frag) {
+			public void write(Template.Fragment frag, Writer out) throws IOException {
 				
-        		StringBuilder builder = new StringBuilder();
 				CodegenOperation operation = (CodegenOperation) frag.context();	
 				String requestPath = operation.path;
 				String requestMethod = operation.httpMethod;
@@ -142,82 +205,190 @@ public class SlateCodegen extends ReggaCodegen {
 				List<Map<String,Object>> successResponseExamples = 
 					operation.responses != null && operation.responses.size() > 0 ? operation.responses.get(0).examples : null;	
 				
-				if (successResponseExamples == null) return builder.toString();
-					
+				if (successResponseExamples == null) return;
+				
 				for (Map<String,Object> example : successResponseExamples) {
 					String contentType = example.get("contentType").toString();
 					
-					for (String snipletId : getReggaSniplets().keySet()) {
-						ReggaSniplet requestSniplet = getReggaSniplets().get(snipletId);
-						if (requestPath.equals(requestSniplet.requestPath) 
-							&& requestMethod.equals(requestSniplet.requestMethod) 
-							&& contentType.equals(requestSniplet.contentType)) {
+					for (ReggaSniplet requestSniplet : getRunContext().getSniplets().getRequestSniplets(requestPath, requestMethod, contentType)) {
+						try {							
+							// response sniplet is resolved by the registry
+							ReggaSniplet responseSniplet = requestSniplet.responseSniplet;
 							
-							try {							
-								// found request sniplet, now retrieve response sniplet
-								ReggaSniplet responseSniplet = getReggaSniplets().get(requestSniplet.responseSnipletId);
-								
-								String title = requestSniplet.title != null ? requestSniplet.title : responseSniplet.title;	
-								String url = requestSniplet.url != null ? requestSniplet.url : responseSniplet.url;
-								url = url.replace("?", "\n?").replace("&", "\n&");
-								
-								builder.append("> " + title + "\n"); 
-								
-								List<String> languages = exampleLanguages();
-								for (String language : languages) {
-									
-									builder.append("\n"); 
-									builder.append("```" + language + "\n"); 
-									if (language.equals("shell")) { // TODO manage other languages than shell
-										builder.append("curl -X " + requestMethod);
-										builder.append("\n-H 'Content-Type: " + contentType + "'");
-										builder.append("\n-H 'Accept: " + contentType + "'");
-										for (String requestHeaderKey : requestSniplet.headers.keySet()) {
-											String requestHeaderValue = requestSniplet.headers.get(requestHeaderKey);
-											builder.append("\n-H '" + requestHeaderKey + ": " + requestHeaderValue + "'");
-										}
-										if (requestSniplet.data != null) builder.append("\n-d '" + prettify(requestSniplet.data) + "' ");
-									}
-									builder.append("\n" + url + "\n");										
-									builder.append("```\n"); 									
-								}									
-								
-								if (responseSniplet != null && responseSniplet.data != null) {	
-									builder.append("\n"); 
-									builder.append("```json\n");  // TODO manage other languages than json
-									builder.append(prettify(responseSniplet.data) + "\n"); 
-									builder.append("```\n");	
-								} 
-								builder.append("\n\n"); 
-							}
-							catch(Exception e) {
-								e.printStackTrace();
-							}
-						}						
+							String title = requestSniplet.title != null ? requestSniplet.title : responseSniplet.title;	
+							String url = requestSniplet.url != null ? requestSniplet.url : responseSniplet.url;
+							
+							writeExchange(out, title, url, requestSniplet, requestMethod, responseSniplet, contentType);
+						}
+						catch(IOException e) {
+							throw e;
+						}
+						catch(Exception e) {
+							getRunContext().getMetrics().count("errors");
+							LOGGER.error("Could not render the Regga Sniplet " + requestSniplet.id + " of " + requestMethod + " " + requestPath, e);
+						}
 					}
 				}
-				
-				return builder.toString();
 			}
-		});
+		}));
+        
+        additionalProperties.put("fnStory", getMetrics().timed("fnStory", new StreamingLambda() {
+			@Override
+			public void write(Template.Fragment frag, Writer out) throws IOException {
+				Story story = (Story) frag.context();
+				for (Step step : story.steps) {
+					Exchange exchange = step.exchange;
+					out.write("**");
+					out.write(String.valueOf(step.number));
+					out.write(". ");
+					out.write(String.valueOf(exchange.title));
+					out.write("**\n\n");
+					if (exchange.requestMethod != null) {
+						out.write("`");
+						out.write(exchange.requestMethod);
+						out.write(" ");
+						out.write(String.valueOf(exchange.requestPath));
+						out.write("`\n\n");
+					}
+					try {
+						if (!step.shared) {
+							writeExchange(out, exchange.title, exchange.url, exchange.request, exchange.requestMethod, exchange.response, exchange.contentType);
+							continue;
+						}
+						// exchanges of several steps are rendered once per run, the others are written as they are rendered
+						ConcurrentMap<Exchange, String> sharedSteps = getRunContext().getSharedSteps();
+						String rendered = sharedSteps.get(exchange);
+						if (rendered == null) {
+							StringWriter stepOut = new StringWriter();
+							writeExchange(stepOut, exchange.title, exchange.url, exchange.request, exchange.requestMethod, exchange.response, exchange.contentType);
+							String previous = sharedSteps.putIfAbsent(exchange, stepOut.toString());
+							rendered = previous != null ? previous : stepOut.toString();
+						}
+						else getRunContext().getMetrics().count("storyStepsShared");
+						out.write(rendered);
+					}
+					catch(IOException e) {
+						throw e;
+					}
+					catch(Exception e) {
+						getRunContext().getMetrics().count("errors");
+						LOGGER.error("Could not render step " + step.number + " of the Regga Story " + story.id, e);
+					}
+				}
+				getRunContext().getMetrics().add("storySteps", story.steps.size());
+			}
+		}));
+    }
+    
+    // title, request examples and response body of a sniplet exchange, in the examples column
+    private void writeExchange(Writer out, String title, String url, ReggaSniplet requestSniplet, String requestMethod, ReggaSniplet responseSniplet, String contentType) throws Exception {
+		out.write("> "); 
+		out.write(String.valueOf(title)); 
+		out.write("\n"); 
+		
+		// oversized bodies are written to their own file, the examples read it from there
+		ReggaPayloadStore payloadStore = getRunContext().getPayloadStore();
+		if (requestSniplet != null) {
+			ReggaExampleRenderers exampleRenderers = getRunContext().getExampleRenderers();
+			List<String> languages = exampleRenderers.getLanguages();
+			String requestData = null;
+			String requestPayload = null;
+			if (!languages.isEmpty() && requestSniplet.data != null) {
+				requestData = prettify(requestSniplet.data, contentType);
+				if (payloadStore != null && payloadStore.isOversized(requestData)) requestPayload = payloadStore.store(requestData, contentType);
+			}
+			
+			// rendered once per distinct request and language
+			ReggaExampleRequest request = new ReggaExampleRequest(requestMethod, url, contentType, requestSniplet.headers, requestData, requestPayload);
+			for (String language : languages) {
+				out.write("\n```"); 
+				out.write(language); 
+				out.write("\n"); 
+				out.write(exampleRenderers.render(language, request));
+				out.write("\n```\n"); 									
+				if (requestPayload != null) payloadStore.externalized(requestData, requestPayload);
+			}
+			if (requestPayload != null) writePayloadLink(out, "Request body", requestData, requestPayload);
+		}
+		
+		if (responseSniplet != null && responseSniplet.data != null) {	
+			String responseData = prettify(responseSniplet.data, contentType);
+			out.write(ReggaPrettyPrinter.isXml(contentType) ? "\n```xml\n" : "\n```json\n");
+			if (payloadStore != null && payloadStore.isOversized(responseData)) {
+				String responsePayload = payloadStore.store(responseData, contentType);
+				String preview = payloadStore.preview(responseData) + "\n...";
+				out.write(preview);
+				out.write("\n```\n");	
+				payloadStore.externalized(responseData, preview);
+				writePayloadLink(out, "Response body", responseData, responsePayload);
+			}
+			else {
+				out.write(responseData); 
+				out.write("\n```\n");	
+			}
+		} 
+		out.write("\n\n"); 
+    }
+    
+    private static void renderSection(Template.Fragment frag, ReggaSectionCache sectionCache, String fingerprint, Writer out) throws IOException {
+    	if (fingerprint == null) frag.execute(out);
+    	else sectionCache.render(fingerprint, frag, out);
+    }
+    
+    // link to an externalized payload, under its code block
+    private static void writePayloadLink(Writer out, String label, String payload, String path) throws IOException {
+    	out.write("\n> [");
+    	out.write(label);
+    	out.write(", ");
+    	out.write(String.valueOf((payload.length() + 1023) / 1024));
+    	out.write(" KB](");
+    	out.write(path);
+    	out.write(")\n");
+    }
+    
+
+    @SuppressWarnings("unchecked")
+	private String sectionFingerprint(Object context) {
+    	String fingerprint = null;
+    	if (context instanceof CodegenModel) {
+    		fingerprint = fingerprintModel((CodegenModel) context);
+    	}
+    	else if (context instanceof Map && ((Map<String, Object>) context).get("operations") instanceof Map) {
+    		Map<String, Object> operations = (Map<String, Object>) ((Map<String, Object>) context).get("operations");
+    		fingerprint = fingerprintOperations((List<CodegenOperation>) operations.get("operation"));
+    	}
+    	// links depend on the headers of the other sections
+    	return fingerprint != null ? new ReggaFingerprint().add(fingerprint).add(anchors.fingerprint()).toHex() : null;
+    }
+    
+    // copied, vendor extensions may be shared with the swagger model
+    private Map<String, Object> withAnchor(Map<String, Object> vendorExtensions, String name) {
+    	Map<String, Object> extensions = vendorExtensions != null ? new HashMap<String, Object>(vendorExtensions) : new HashMap<String, Object>();
+    	extensions.put(SlateAnchors.VENDOR_EXTENSION, anchors.get(String.valueOf(name)));
+    	return extensions;
     }
 
     @Override
     @SuppressWarnings("unchecked")
 	public Map<String, Object> postProcessOperations(Map<String, Object> objs) {
-    	objs = super.postProcessOperations(objs);
-
+    	long start = getMetrics().start();
         Map<String, Object> operations = (Map<String, Object>) objs.get("operations");
-        
         List<CodegenOperation> operationList = (List<CodegenOperation>) operations.get("operation");
+        if (keepOriginalOrder) {
+        	// sorted before the sniplets are registered, in spec order as well
+        	Collections.sort(operationList, new Comparator<CodegenOperation>() {
+				@Override
+				public int compare(CodegenOperation o1, CodegenOperation o2) {
+					return Integer.compare(position(operationPositions, operationKey(o1.httpMethod, o1.path)), 
+						position(operationPositions, operationKey(o2.httpMethod, o2.path)));
+				}
+			});
+        }
+        
+    	objs = super.postProcessOperations(objs);
+
         for (CodegenOperation operation : operationList) {
-			Operation operationTmp = getSwagger().getPaths().get(operation.path).getOperationMap().get(HttpMethod.valueOf(operation.httpMethod));
-        	if (keepOriginalOrder()) {
-            	// set back original tag
-            	operation.baseName = toApiName(operation.baseName);
-            	// set back original id
-            	operation.operationId = operation.operationId.substring("custom00000".length());
-        	}
+			Operation operationTmp = getOperationIndex().getOperation(operation.path, operation.httpMethod);
         	if (operation.responses != null) {
 	        	for (CodegenResponse response : operation.responses) {
 	        		// override jsonSchema with ref name
@@ -237,9 +408,13 @@ public class SlateCodegen extends ReggaCodegen {
 	        				response.jsonSchema = ref.getSimpleRef();
 	        			}
 	        			else response.jsonSchema = ((Property) response.schema).getType(); // FIXME better support of other responses
+	        			response.vendorExtensions = withAnchor(response.vendorExtensions, response.jsonSchema);
 	        		}
 	        	} 
         	}
+        	for (CodegenParameter param : operation.bodyParams) {
+        		param.vendorExtensions = withAnchor(param.vendorExtensions, param.dataType);
+        	}
         	// make scope usable for securities other than oauth
         	if (operation.authMethods != null) {
 	        	for (CodegenSecurity security : operation.authMethods) {	        		
@@ -267,18 +442,20 @@ public class SlateCodegen extends ReggaCodegen {
         }
     	
         for (Tag tag : getSwagger().getTags()) {
-        	if (toApiName(tag.getName()).equals(operations.get("classname"))) {
+        	if (sanitizeTag(tag.getName()).equals(operations.get("classname"))) {
         		objs.put("package", tag.getDescription());
         		break;
         	}
         }
     	
+        getMetrics().stop("postProcessOperations", start);
         return objs;
     }
     
     @Override
     @SuppressWarnings("unchecked")
 	public Map<String, Object> postProcessAllModels(final Map<String, Object> objs) {
+    	long start = getMetrics().start();
     
     	final Map<String, Object> processed =  super.postProcessAllModels(objs);
         // fix isPrimitive flag
@@ -290,16 +467,277 @@ public class SlateCodegen extends ReggaCodegen {
             	for (CodegenProperty property : cm.allVars) {
             		property.isPrimitiveType = (typeMapping.get(property.complexType) != null);
             	}
+            	cm.vendorExtensions = withAnchor(cm.vendorExtensions, cm.name);
+            	for (CodegenProperty property : cm.vars) {
+            		if (property.complexType != null) property.vendorExtensions = withAnchor(property.vendorExtensions, property.complexType);
+            	}
             }
         }        
+        getMetrics().stop("postProcessAllModels", start);
         return processed;
     }
     
+    @Override
+    protected List<String> templateFiles() {
+    	List<String> templateFiles = super.templateFiles();
+    	templateFiles.addAll(Arrays.asList("tag.md.mustache", "model.md.mustache", "_tag.md.mustache", "_resources.md.mustache", "stories.md.mustache"));
+    	return templateFiles;
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> postProcessSupportingFileData(Map<String, Object> objs) {
+    	objs = super.postProcessSupportingFileData(objs);
+    	Map<String, Object> apiInfo = (Map<String, Object>) objs.get("apiInfo");
+    	List<Object> apis = apiInfo != null ? (List<Object>) apiInfo.get("apis") : new ArrayList<Object>();
+    	if (keepOriginalOrder) {
+    		// tags missing from the spec tags list keep their default order, after the others
+    		Collections.sort(apis, new Comparator<Object>() {
+				@Override
+				public int compare(Object o1, Object o2) {
+					return Integer.compare(position(tagPositions, ((Map<String, Object>) o1).get("classname")), 
+						position(tagPositions, ((Map<String, Object>) o2).get("classname")));
+				}
+			});
+    	}
+    	
+    	// stories are written after the resources, the section is left out when there are none
+    	List<Story> stories = getRunContext().getSnipletGraph().getStories();
+    	objs.put("reggaStories", stories);
+    	objs.put("hasReggaStories", !stories.isEmpty());
+    	
+    	searchIndex = searchIndexEnabled() ? new SlateSearchIndex() : null;
+    	if (!splitOutput()) {
+    		// anchors get the ids Slate gives to the headers, once all the headers of the document are known
+    		anchors.newDocument();
+    		anchors.count(String.valueOf(objs.get("appName")));
+    		for (Object api : apis) {
+    			countTagHeaders((Map<String, Object>) api);
+    		}
+    		anchors.count("Resources");
+    		for (Object model : (List<Object>) objs.get("models")) {
+    			countModelHeader((Map<String, Object>) model);
+    		}
+    		countStoryHeaders(stories);
+    		anchors.freeze();
+    		putSearchIndex(objs);
+    		return objs;
+    	}
+    	
+    	// each tag and resource group is rendered and written on its own, index.html.md only lists them as includes
+    	List<String> includes = new ArrayList<String>();
+    	Set<String> slugs = new HashSet<String>();
+    	File includesDir = new File(outputFolder(), "includes");
+    	CodegenIgnoreProcessor ignoreProcessor = new CodegenIgnoreProcessor(outputFolder());
+    	
+    	// resources are grouped by the first letter of their name: Swagger 2.0 definitions have no tags to group them,
+    	// and letters give stable include names and a bounded number of includes whatever the number of models
+    	Template resourcesTemplate = compileTemplate("_resources.md.mustache");
+    	Map<String, List<Object>> groups = new LinkedHashMap<String, List<Object>>();
+    	for (Object model : (List<Object>) objs.get("models")) {
+    		CodegenModel cm = (CodegenModel) ((Map<String, Object>) model).get("model");
+    		char first = cm.name != null && cm.name.length() > 0 ? Character.toLowerCase(cm.name.charAt(0)) : '_';
+    		String group = Character.isLetterOrDigit(first) ? String.valueOf(first) : "_";
+    		if (groups.get(group) == null) groups.put(group, new ArrayList<Object>());
+    		groups.get(group).add(model);
+    	}
+    	
+    	// Slate counts the headers of each include on its own
+    	for (Object api : apis) {
+    		anchors.newDocument();
+    		countTagHeaders((Map<String, Object>) api);
+    	}
+    	boolean first = true;
+    	for (List<Object> group : groups.values()) {
+    		anchors.newDocument();
+    		if (first) anchors.count("Resources");
+    		for (Object model : group) {
+    			countModelHeader((Map<String, Object>) model);
+    		}
+    		first = false;
+    	}
+    	if (!stories.isEmpty()) {
+    		anchors.newDocument();
+    		countStoryHeaders(stories);
+    	}
+    	anchors.freeze();
+    	putSearchIndex(objs);
+    	
+    	// includes are written once all the anchors they link to are known
+    	Template tagTemplate = compileTemplate("_tag.md.mustache");
+    	for (Object api : apis) {
+    		String name = "tag_" + uniqueSlug(String.valueOf(((Map<String, Object>) api).get("classname")), slugs);
+    		writeInclude(includesDir, name, tagTemplate, api, ignoreProcessor);
+    		includes.add(name);
+    	}
+    	
+    	first = true;
+    	for (Entry<String, List<Object>> group : groups.entrySet()) {
+    		Map<String, Object> context = new HashMap<String, Object>(objs);
+    		context.put("models", group.getValue());
+    		context.put("resourcesHeading", first);
+    		String name = "resources_" + uniqueSlug(group.getKey(), slugs);
+    		writeInclude(includesDir, name, resourcesTemplate, context, ignoreProcessor);
+    		includes.add(name);
+    		first = false;
+    	}
+    	
+    	if (!stories.isEmpty()) {
+    		writeInclude(includesDir, "stories", compileTemplate("stories.md.mustache"), objs, ignoreProcessor);
+    		includes.add("stories");
+    	}
+    	deleteStaleIncludes(includesDir, includes, ignoreProcessor);
+    	
+    	objs.put("splitIncludes", includes);
+    	return objs;
+    }
+    
+    private static String operationKey(String method, String path) {
+    	return method.toUpperCase() + " " + path;
+    }
+    
+    private static int position(Map<String, Integer> positions, Object key) {
+    	Integer position = positions != null ? positions.get(key) : null;
+    	return position != null ? position : Integer.MAX_VALUE;
+    }
+    
+    // headers of tag.md, in document order
+    @SuppressWarnings("unchecked")
+    private void countTagHeaders(Map<String, Object> api) {
+    	String id = anchors.count(api.get("classname") + " operations");
+    	if (searchIndex != null) searchIndex.addTag(id, String.valueOf(api.get("classname")), (String) api.get("package"));
+    	Map<String, Object> operations = (Map<String, Object>) api.get("operations");
+    	for (CodegenOperation operation : (List<CodegenOperation>) operations.get("operation")) {
+    		id = anchors.count(operation.summary != null ? operation.summary : "");
+    		if (searchIndex != null) searchIndex.addOperation(id, operation);
+    		anchors.count("HTTP Request");
+    		if (operation.authMethods != null) {
+    			for (int i = 0; i < operation.authMethods.size(); i++) anchors.count("Scopes");
+    		}
+    		if (operation.hasParams) anchors.count("Parameters");
+    		anchors.count("Responses");
+    	}
+    }
+    
+    private void countModelHeader(Map<String, Object> model) {
+    	CodegenModel cm = (CodegenModel) model.get("model");
+    	String id = anchors.count(cm.name);
+    	if (searchIndex != null) searchIndex.addModel(id, cm);
+    }
+    
+    // headers of stories.md
+    private void countStoryHeaders(List<Story> stories) {
+    	if (stories.isEmpty()) return;
+    	// stories are not resources, a story titled like a model must not take its anchor
+    	anchors.countHeader("Stories");
+    	for (Story story : stories) {
+    		String id = anchors.countHeader(story.title);
+    		if (searchIndex != null) searchIndex.addStory(id, story.title, story.tags);
+    	}
+    }
+    
+    // the index is written by the search-index.json template
+    private void putSearchIndex(Map<String, Object> objs) {
+    	if (searchIndex == null) return;
+    	try {
+    		objs.put("searchIndexJson", searchIndex.toJson());
+    		getMetrics().add("searchIndexEntries", searchIndex.size());
+    	}
+    	catch (IOException e) {
+    		throw new RuntimeException("Could not write the search index", e);
+    	}
+    }
+    
+    private static String uniqueSlug(String name, Set<String> slugs) {
+    	String slug = name.toLowerCase().replaceAll("[^a-z0-9]+", "-").replaceAll("^-|-$", "");
+    	if (slug.isEmpty()) slug = "_";
+    	String unique = slug;
+    	for (int i = 2; !slugs.add(unique); i++) {
+    		unique = slug + "-" + i;
+    	}
+    	return unique;
+    }
+    
+    private void writeInclude(File includesDir, String name, Template template, Object context, CodegenIgnoreProcessor ignoreProcessor) {
+    	File file = new File(includesDir, "_" + name + ".md");
+    	if (!ignoreProcessor.allowsFile(file)) {
+    		LOGGER.info("Skipped generation of " + file + " due to rule in .swagger-codegen-ignore");
+    		return;
+    	}
+    	try {
+    		if (!includesDir.isDirectory() && !includesDir.mkdirs()) throw new IOException("Could not create " + includesDir);
+    		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+    		try {
+    			template.execute(context, out);
+    		}
+    		finally {
+    			out.close();
+    		}
+    		LOGGER.info("writing file " + file);
+    		getMetrics().add("bytesWritten", file.length());
+    	}
+    	catch (IOException e) {
+    		throw new RuntimeException("Could not write " + file, e);
+    	}
+    }
+    
+    // includes of tags, resource groups and stories written by earlier runs and gone from the spec
+    private void deleteStaleIncludes(File includesDir, List<String> includes, CodegenIgnoreProcessor ignoreProcessor) {
+    	File[] files = includesDir.listFiles();
+    	if (files == null) return;
+    	Set<String> names = new HashSet<String>();
+    	for (String include : includes) {
+    		names.add("_" + include + ".md");
+    	}
+    	for (File file : files) {
+    		String name = file.getName();
+    		boolean generated = name.equals("_stories.md") || (name.endsWith(".md") && (name.startsWith("_tag_") || name.startsWith("_resources_")));
+    		if (!generated || names.contains(name) || !ignoreProcessor.allowsFile(file)) continue;
+    		if (file.delete()) LOGGER.info("deleting stale file " + file);
+    		else LOGGER.warn("Could not delete stale file " + file);
+    	}
+    }
+    
+    @Override
+    public void processSwagger(Swagger swagger) {
+    	super.processSwagger(swagger);
+    	
+    	if (additionalProperties.get("watch") != null && Boolean.valueOf(additionalProperties.get("watch").toString())) {
+    		// blocks the build until interrupted, each run uses a new codegen with the same options,
+    		// the first one on the next change since the documentation was just generated
+    		Map<String, Object> options = new HashMap<String, Object>();
+    		for (CliOption option : cliOptions()) {
+    			if (additionalProperties.get(option.getOpt()) != null) options.put(option.getOpt(), additionalProperties.get(option.getOpt()));
+    		}
+    		Object templateDir = additionalProperties.get(CodegenConstants.TEMPLATE_DIR);
+    		try {
+    			new SlateWatch(getInputSpec(), outputFolder(), templateDir != null ? templateDir.toString() : null, options).watch(false);
+    		}
+    		catch (InterruptedException e) {
+    			Thread.currentThread().interrupt();
+    		}
+    		catch (IOException e) {
+    			throw new RuntimeException("Could not watch " + getInputSpec(), e);
+    		}
+    	}
+    }
+    
+    @Override
+    protected int getRenderThreads() {
+    	// includes are written by postProcessSupportingFileData, their sections are rendered in place
+    	return splitOutput() ? 1 : super.getRenderThreads();
+    }
+    
     @Override
     public String toApiName(String name) {   	
-    	name = keepOriginalOrder() ? name.substring("CustomZ".length()) : name;
         return name;
     }
+    
+    @Override
+    public String sanitizeTag(String tag) {
+    	// tags were renamed with a prefix to keep their order, their first letter kept its case in the headings
+    	return keepOriginalOrder ? super.sanitizeTag("A" + tag).substring(1) : super.sanitizeTag(tag);
+    }
 
     @Override
     public String getTypeDeclaration(Property p) {
@@ -310,7 +748,9 @@ public class SlateCodegen extends ReggaCodegen {
     
     @Override
     public Compiler processCompiler(Compiler compiler) {
-    	return compiler.escapeHTML(false);
+    	compiler = compiler.escapeHTML(false);
+    	// batch runs compile each template once for all the specs
+    	return getTemplateCache() != null ? getTemplateCache().sharing(compiler) : compiler;
     }
 
     @Override
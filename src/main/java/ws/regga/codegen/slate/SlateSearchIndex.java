@@ -0,0 +1,89 @@
+package ws.regga.codegen.slate;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import io.swagger.codegen.CodegenModel;
+import io.swagger.codegen.CodegenOperation;
+import io.swagger.codegen.CodegenParameter;
+import io.swagger.codegen.CodegenProperty;
+import ws.regga.codegen.util.ReggaJson;
+
+/**
+ * Search index of the document, built from the operations and models while their headers are counted,
+ * so that the browser loads it instead of indexing the whole rendered page with lunr.
+ *
+ * Entries are written in document order with short keys: a (anchor), t (title), r (http request),
+ * s (summary, first sentence of the description) and p (parameter, attribute or story tag names).
+ */
+class SlateSearchIndex {
+
+	static final String FILE = "search-index.json";
+	// static script loading the index, referenced by index.html.md
+	static final String SCRIPT = "search-index.js";
+
+	private static final int MAX_SUMMARY = 160;
+
+	private final List<Map<String, Object>> entries = new ArrayList<Map<String, Object>>();
+
+	void addTag(String anchor, String name, String description) {
+		add(anchor, name, null, description, null);
+	}
+
+	void addOperation(String anchor, CodegenOperation operation) {
+		List<String> params = new ArrayList<String>();
+		if (operation.allParams != null) {
+			for (CodegenParameter param : operation.allParams) {
+				if (param.baseName != null && !params.contains(param.baseName)) params.add(param.baseName);
+			}
+		}
+		add(anchor, operation.summary, operation.httpMethod + " " + operation.path, operation.notes, params);
+	}
+
+	void addModel(String anchor, CodegenModel model) {
+		List<String> attributes = new ArrayList<String>();
+		if (model.vars != null) {
+			for (CodegenProperty var : model.vars) {
+				if (var.name != null) attributes.add(var.name);
+			}
+		}
+		add(anchor, model.name, null, model.description, attributes);
+	}
+
+	void addStory(String anchor, String title, List<String> tags) {
+		add(anchor, title, null, null, tags);
+	}
+
+	int size() {
+		return entries.size();
+	}
+
+	String toJson() throws JsonProcessingException {
+		return ReggaJson.WRITER.writeValueAsString(entries);
+	}
+
+	private void add(String anchor, String title, String request, String description, List<String> names) {
+		Map<String, Object> entry = new LinkedHashMap<String, Object>();
+		entry.put("a", anchor);
+		entry.put("t", title != null ? title : "");
+		if (request != null) entry.put("r", request);
+		String summary = summary(description);
+		if (summary != null) entry.put("s", summary);
+		if (names != null && !names.isEmpty()) entry.put("p", names);
+		entries.add(entry);
+	}
+
+	// first sentence, markup and line breaks removed
+	private static String summary(String description) {
+		if (description == null) return null;
+		String text = description.replaceAll("<[^>]*>", " ").replaceAll("\\s+", " ").trim();
+		int end = text.indexOf(". ");
+		if (end >= 0) text = text.substring(0, end + 1);
+		if (text.length() > MAX_SUMMARY) text = text.substring(0, MAX_SUMMARY - 3).trim() + "...";
+		return text.isEmpty() ? null : text;
+	}
+}
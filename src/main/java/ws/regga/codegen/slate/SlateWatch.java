@@ -0,0 +1,183 @@
+package ws.regga.codegen.slate;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.swagger.codegen.CodegenConstants;
+import ws.regga.codegen.util.ReggaPrettifyCache;
+import ws.regga.codegen.util.ReggaSpecSource;
+
+/**
+ * Long running generation: the documentation is generated again each time the spec or a custom template is saved.
+ *
+ * The JVM stays warm between runs, and so do the Jackson mappers and the prettify cache.
+ * The incremental mode is enabled unless configured otherwise, so that only the changed sections are rendered again.
+ *
+ * Usage: java -cp ... ws.regga.codegen.slate.SlateWatch -i spec.json -o output-dir [-t template-dir] [-d debounce-ms] [option=value...]
+ * or the watch option of the generator.
+ */
+public class SlateWatch {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SlateWatch.class);
+
+	public static final long DEFAULT_DEBOUNCE_MILLIS = 200;
+
+	private final Path inputSpec;
+	private final String outputDir;
+	private final Path templateDir;
+	private final Map<String, Object> options;
+	private long debounceMillis = DEFAULT_DEBOUNCE_MILLIS;
+
+	// shared by the successive runs, bodies of unchanged sniplets are not prettified again
+	private final ReggaPrettifyCache prettifyCache = new ReggaPrettifyCache();
+
+	/**
+	 * @param templateDir custom template directory, null for the embedded templates
+	 * @param options generator options
+	 */
+	public SlateWatch(String inputSpec, String outputDir, String templateDir, Map<String, Object> options) {
+		if (inputSpec.toLowerCase().startsWith("http")) throw new IllegalArgumentException("Only local specs can be watched: " + inputSpec);
+		this.inputSpec = inputSpec.toLowerCase().startsWith("file:") ? Paths.get(URI.create(inputSpec)) : Paths.get(inputSpec);
+		this.outputDir = outputDir;
+		this.templateDir = templateDir != null ? Paths.get(templateDir) : null;
+		this.options = new LinkedHashMap<String, Object>(options);
+		this.options.remove("watch");
+		if (!this.options.containsKey("incremental")) this.options.put("incremental", "true");
+	}
+
+	public void setDebounceMillis(long debounceMillis) {
+		this.debounceMillis = debounceMillis;
+	}
+
+	/**
+	 * Generates the documentation once, errors are logged so that watching can go on.
+	 * @return true if the generation succeeded
+	 */
+	public boolean generate() {
+		long start = System.nanoTime();
+		try {
+			// read to the heap rather than mapped, the file may be truncated by the next save
+			ReggaSpecSource source = new ReggaSpecSource(inputSpec.toString(), Files.readAllBytes(inputSpec));
+
+			SlateCodegen codegen = new SlateCodegen();
+			codegen.setInputSpec(inputSpec.toString());
+			codegen.setOutputDir(outputDir);
+			codegen.additionalProperties().putAll(options);
+			if (templateDir != null) codegen.additionalProperties().put(CodegenConstants.TEMPLATE_DIR, templateDir.toString());
+			// parsed once for both the generator and the codegen
+			codegen.setSpecSource(source);
+			codegen.setPrettifyCache(prettifyCache);
+
+			codegen.generate(source.getSwagger());
+			LOGGER.info("Generated " + outputDir + " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+			return true;
+		}
+		catch (Exception e) {
+			LOGGER.error("Could not generate " + outputDir + " from " + inputSpec, e);
+			return false;
+		}
+	}
+
+	/**
+	 * Generates the documentation, then again after each change of the spec or of the templates, until interrupted.
+	 */
+	public void watch() throws IOException, InterruptedException {
+		watch(true);
+	}
+
+	/**
+	 * Generates the documentation after each change of the spec or of the templates, until interrupted.
+	 * @param generateFirst false when the documentation was just generated, it is then only generated on changes
+	 */
+	public void watch(boolean generateFirst) throws IOException, InterruptedException {
+		WatchService watchService = FileSystems.getDefault().newWatchService();
+		try {
+			Map<WatchKey, Path> directories = new HashMap<WatchKey, Path>();
+			Path specDir = inputSpec.toAbsolutePath().getParent();
+			directories.put(register(watchService, specDir), specDir);
+			if (templateDir != null) {
+				Path dir = templateDir.toAbsolutePath();
+				directories.put(register(watchService, dir), dir);
+			}
+
+			if (generateFirst) generate();
+			LOGGER.info("Watching " + inputSpec + (templateDir != null ? " and " + templateDir : "") + " for changes");
+
+			while (true) {
+				WatchKey key = watchService.take();
+				boolean changed = relevant(key, directories);
+				// editors save in bursts (backup, write, rename), wait for a quiet period
+				while ((key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS)) != null) {
+					changed |= relevant(key, directories);
+				}
+				if (changed) generate();
+			}
+		}
+		finally {
+			watchService.close();
+		}
+	}
+
+	private static WatchKey register(WatchService watchService, Path dir) throws IOException {
+		return dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+	}
+
+	// polls the events of the key and resets it
+	private boolean relevant(WatchKey key, Map<WatchKey, Path> directories) {
+		boolean relevant = false;
+		Path dir = directories.get(key);
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				relevant = true;
+				continue;
+			}
+			Path changed = dir.resolve((Path) event.context());
+			if (changed.equals(inputSpec.toAbsolutePath())) relevant = true;
+			else if (templateDir != null && dir.equals(templateDir.toAbsolutePath()) && changed.toString().endsWith(".mustache")) relevant = true;
+		}
+		key.reset();
+		return relevant;
+	}
+
+	public static void main(String[] args) throws Exception {
+		String inputSpec = null;
+		String outputDir = null;
+		String templateDir = null;
+		long debounceMillis = DEFAULT_DEBOUNCE_MILLIS;
+		Map<String, Object> options = new LinkedHashMap<String, Object>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-i") && i + 1 < args.length) inputSpec = args[++i];
+			else if (args[i].equals("-o") && i + 1 < args.length) outputDir = args[++i];
+			else if (args[i].equals("-t") && i + 1 < args.length) templateDir = args[++i];
+			else if (args[i].equals("-d") && i + 1 < args.length) debounceMillis = Long.parseLong(args[++i]);
+			else if (args[i].contains("=")) options.put(args[i].substring(0, args[i].indexOf('=')), args[i].substring(args[i].indexOf('=') + 1));
+			else {
+				inputSpec = null;
+				break;
+			}
+		}
+		if (inputSpec == null || outputDir == null) {
+			System.err.println("Usage: SlateWatch -i spec.json -o output-dir [-t template-dir] [-d debounce-ms] [option=value...]");
+			System.exit(1);
+		}
+		SlateWatch watch = new SlateWatch(inputSpec, new File(outputDir).getPath(), templateDir, options);
+		watch.setDebounceMillis(debounceMillis);
+		watch.watch();
+	}
+}
@@ -1,57 +1,132 @@
 package ws.regga.codegen.util;
 
+import java.io.File;
+import java.io.FilterWriter;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.io.Writer;
-import java.net.URI;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
-
-import org.apache.commons.io.FileUtils;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.samskivert.mustache.Mustache;
 import com.samskivert.mustache.Template;
 
+import io.swagger.codegen.ClientOptInput;
+import io.swagger.codegen.ClientOpts;
+import io.swagger.codegen.CliOption;
 import io.swagger.codegen.CodegenConfig;
+import io.swagger.codegen.CodegenModel;
 import io.swagger.codegen.CodegenOperation;
+import io.swagger.codegen.CodegenProperty;
 import io.swagger.codegen.CodegenResponse;
 import io.swagger.codegen.DefaultCodegen;
-import io.swagger.codegen.examples.ExampleGenerator;
-import io.swagger.models.HttpMethod;
+import io.swagger.codegen.DefaultGenerator;
+import io.swagger.codegen.SupportingFile;
 import io.swagger.models.Operation;
 import io.swagger.models.Response;
 import io.swagger.models.Swagger;
-import io.swagger.parser.util.ClasspathHelper;
-import io.swagger.parser.util.RemoteUrl;
+import ws.regga.codegen.util.ReggaSnipletParser.ParsedExample;
 
+/**
+ * Base of the Regga generators.
+ *
+ * Concurrency contract: an instance runs one generation at a time, a second thread starting a run while
+ * another one is in progress gets an IllegalStateException; separate instances can run concurrently
+ * (e.g. executions of a parallel Maven build). An instance can be reused for successive runs, its state
+ * is reset when a run starts. The state gathered while processing the spec is frozen into a
+ * {@link ReggaRunContext} before rendering, the lambdas only read from it.
+ * Caches shared between runs (prettify, template caches) are thread-safe.
+ */
 public abstract class ReggaCodegen extends DefaultCodegen implements CodegenConfig {
 
     private Swagger swagger;
+    private ReggaOperationIndex operationIndex;
+    // to be increased when a change of the generator alters the rendered sections
+    private static final String SECTION_CACHE_VERSION = "1";
+    // written next to the generated files when the metricsReport option is set
+    public static final String METRICS_REPORT = "regga-metrics.json";
+    // examples of the languages without a template or renderer of their own
+    public static final String EXAMPLE_TEMPLATE = "example.mustache";
+    
+    private ReggaSpecSource specSource;
+    // loaded from the input spec by this run rather than provided, dropped when the next run starts
+    private boolean specSourceLoaded;
     private JsonNode swaggerJsonNode;
-    private Map<String, ReggaSniplet> reggaSniplets = new HashMap<String, ReggaSniplet>();
-    private Map<String, ReggaStory> reggaStories = null; // instanciated on first invocation
+    private ReggaSnipletRegistry reggaSniplets = new ReggaSnipletRegistry();
+    private ReggaSnipletParser reggaSnipletParser;
+    private ForkJoinPool forkJoinPool;
+    private ReggaPrettifyCache prettifyCache = new ReggaPrettifyCache();
+    private ReggaExampleCache exampleCache;
+    private ReggaTemplateCache templateCache;
+    private ReggaMetrics metrics = new ReggaMetrics();
+    private long runStart;
+    private long renderStart;
+    private ReggaRunContext runContext; // built before rendering
+    private Thread runThread;
 	
     public ReggaCodegen() {
 		super();
 		embeddedTemplateDir = "templates"; 
 	}
 
-	protected static abstract class CustomLambda implements Mustache.Lambda {
+	/**
+	 * Lambda writing its output straight to the template writer, without building it as a String first.
+	 */
+	protected static abstract class StreamingLambda implements Mustache.Lambda {
         @Override
         public void execute(Template.Fragment frag, Writer out) throws IOException {
-            out.write(getOutput(frag));
+            write(frag, out);
         }
-        public abstract String getOutput(Template.Fragment frag);
+        public abstract void write(Template.Fragment frag, Writer out) throws IOException;
     }
 	
+	/**
+	 * Writer lower casing what is written to the underlying writer.
+	 */
+	protected static class LowerCaseWriter extends FilterWriter {
+		public LowerCaseWriter(Writer out) {
+			super(out);
+		}
+		@Override
+		public void write(int c) throws IOException {
+			out.write(Character.toLowerCase((char) c));
+		}
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			for (int i = off; i < off + len; i++) {
+				out.write(Character.toLowerCase(cbuf[i]));
+			}
+		}
+		@Override
+		public void write(String str, int off, int len) throws IOException {
+			for (int i = off; i < off + len; i++) {
+				out.write(Character.toLowerCase(str.charAt(i)));
+			}
+		}
+		@Override
+		public void close() throws IOException {
+			// the underlying template writer is not ours to close
+			flush();
+		}
+	}
+	
     protected static class ReggaSniplet {    	
     	// pojo attributes
     	public String contentType;
@@ -64,9 +139,12 @@ public abstract class ReggaCodegen extends DefaultCodegen implements CodegenConf
     	public List<String> tags;
     	public String url;    	
     	public Map<String, String> headers;
-    	public Object data;
+    	public Object data; // String or ReggaSnipletData
     	public String requestSnipletId;
     	public String responseSnipletId;
+    	// resolved by the registry from requestSnipletId and responseSnipletId
+    	public ReggaSniplet requestSniplet;
+    	public ReggaSniplet responseSniplet;
     }
     
     protected enum ReggaSnipletType {
@@ -85,225 +163,696 @@ public abstract class ReggaCodegen extends DefaultCodegen implements CodegenConf
     	return swagger;
     }
     
+    protected ReggaOperationIndex getOperationIndex() {
+    	return operationIndex;
+    }
+    
     protected JsonNode getSwaggerJsonNode() {
 		if (swaggerJsonNode == null) {
 			try {
-		        String location = getInputSpec().replaceAll("\\\\","/");
-				String data;
-		        if (location.toLowerCase().startsWith("http")) {
-		            data = RemoteUrl.urlToString(location, null);
-		        } else {
-		            final String fileScheme = "file://";
-		            Path path;
-		            if (location.toLowerCase().startsWith(fileScheme)) {
-		                path = Paths.get(URI.create(location));
-		            } else {
-		                path = Paths.get(location);
-		            }
-		            if (Files.exists(path)) {
-		                data = FileUtils.readFileToString(path.toFile(), "UTF-8");
-		            } else {
-		                data = ClasspathHelper.loadFileFromClasspath(location);
-		            }
-		        }
-		        swaggerJsonNode = new ObjectMapper().readTree(data);
+				ReggaSpecSource source = getSpecSource();
+				long start = metrics.start();
+				swaggerJsonNode = source.getJsonNode();
+				metrics.stop("specParse", start);
 			}
 			catch(Exception e) {
-				e.printStackTrace();
+				metrics.count("errors");
+				LOGGER.error("Could not parse " + getInputSpec(), e);
 			}
 		}
 		return swaggerJsonNode;
     }  
     
+    /**
+     * Spec read once from the input spec location, remote specs go through the local spec cache.
+     */
+    protected ReggaSpecSource getSpecSource() throws Exception {
+    	if (specSource == null) {
+    		long start = metrics.start();
+    		specSource = ReggaSpecSource.load(getInputSpec(), getSpecCacheDir());
+    		specSourceLoaded = true;
+    		metrics.stop("specFetch", start);
+    		metrics.add("specBytes", specSource.size());
+    	}
+    	return specSource;
+    }
+    
+    /**
+     * Provides an already loaded spec, so that it is neither downloaded nor parsed again.
+     */
+    public void setSpecSource(ReggaSpecSource specSource) {
+    	this.specSource = specSource;
+    	this.specSourceLoaded = false;
+    	this.swaggerJsonNode = null;
+    }
+    
+    // under the output directory by default, nothing is written outside of it unless configured
+    private File getSpecCacheDir() {
+    	Object specCacheDir = additionalProperties.get("specCacheDir");
+    	if (specCacheDir == null) return new File(outputFolder(), ".regga-cache" + File.separator + "specs");
+    	if (specCacheDir.toString().trim().isEmpty() || specCacheDir.toString().equals("false")) return null;
+    	return new File(specCacheDir.toString());
+    }
+    
 	protected Map<String, ReggaSniplet> getReggaSniplets() {
-		return reggaSniplets;
+		return reggaSniplets.asMap();
+    }
+	
+	protected ReggaSnipletParser getReggaSnipletParser() {
+		if (reggaSnipletParser == null) reggaSnipletParser = new ReggaSnipletParser(swagger, reggaSniplets);
+		return reggaSnipletParser;
+	}
+	
+	protected ReggaPrettifyCache getPrettifyCache() {
+		return prettifyCache;
+	}
+	
+	/**
+	 * Shares a prettify cache between successive runs.
+	 */
+	public void setPrettifyCache(ReggaPrettifyCache prettifyCache) {
+		this.prettifyCache = prettifyCache;
+	}
+	
+	protected ReggaTemplateCache getTemplateCache() {
+		return templateCache;
+	}
+	
+	/**
+	 * Shares compiled templates with other runs, see processCompiler.
+	 */
+	public void setTemplateCache(ReggaTemplateCache templateCache) {
+		this.templateCache = templateCache;
+	}
+	
+	/**
+	 * Metrics of the run, complete once the generation is done.
+	 */
+	public ReggaMetrics getMetrics() {
+		return metrics;
+	}
+    
+    /**
+     * State of the current run, only available once rendering started.
+     */
+    protected ReggaRunContext getRunContext() {
+    	if (runContext == null) throw new IllegalStateException("The run context is built before rendering");
+    	return runContext;
     }
     
     protected Map<String, ReggaStory> getReggaStories() {
-    	if (reggaStories == null) {
-    		reggaStories = new HashMap<String, ReggaStory>();
-    		try {
-	        	JsonNode swaggerRaw = getSwaggerJsonNode();
-	            if (swaggerRaw != null && swaggerRaw.get("x-regga-stories") != null && swaggerRaw.get("x-regga-stories").isArray()) {
-	            	Iterator<JsonNode> storiesNode = swaggerRaw.get("x-regga-stories").elements();
-	            	while (storiesNode.hasNext()) {
-	            		JsonNode storyNode = storiesNode.next();
-	    				if (storyNode.get("x-regga-type") == null || !storyNode.get("x-regga-type").asText().equals("story")) continue;
-	    				
-	    				ReggaStory story = new ReggaStory();
-	    				story.id = storyNode.get("id") != null && storyNode.get("id").isTextual() ? sanitizeName(storyNode.get("id").asText()) : "story" + new Random().nextInt(999999);
-	    				story.title = storyNode.get("title") != null && storyNode.get("title").isTextual() ? sanitizeName(storyNode.get("title").asText()) : null;
-	    				story.tags = null;
-	    				story.snipletSequence = null;
-	    				
-	    				if (storyNode.get("tags") != null && storyNode.get("tags").isArray()) {
-	    					story.tags = new ArrayList<String>();
-	    		        	Iterator<JsonNode> tags = storyNode.get("tags").elements();
-	    		        	while (tags.hasNext()) {
-	    		        		JsonNode tag = tags.next();
-	    		        		story.tags.add(tag.asText());
-	    		        	}
-	    				}
-	            		
-	    				if (storyNode.get("snipletSequence") != null && storyNode.get("snipletSequence").isArray()) {
-	    					story.snipletSequence = new ArrayList<String>();
-	    		        	Iterator<JsonNode> snipletSequence = storyNode.get("snipletSequence").elements();
-	    		        	while (snipletSequence.hasNext()) {
-	    		        		JsonNode snipletId = snipletSequence.next();
-	    		        		story.snipletSequence.add(snipletId.asText());
-	    		        	}
-	    				}
-	    				
-	    				if (reggaStories.get(story.id) != null) throw new Exception("Regga Story ids must be unique");
-	    				reggaStories.put(story.id, story);
-	            	}
-	            }
+    	return getRunContext().getStories();
+    }
+    
+    private Map<String, ReggaStory> parseReggaStories() {
+    	Map<String, ReggaStory> reggaStories = new LinkedHashMap<String, ReggaStory>();
+    	try {
+        	JsonNode swaggerRaw = getSwaggerJsonNode();
+            if (swaggerRaw != null && swaggerRaw.get("x-regga-stories") != null && swaggerRaw.get("x-regga-stories").isArray()) {
+            	Iterator<JsonNode> storiesNode = swaggerRaw.get("x-regga-stories").elements();
+            	int index = 0;
+            	while (storiesNode.hasNext()) {
+            		JsonNode storyNode = storiesNode.next();
+            		index++;
+    				if (storyNode.get("x-regga-type") == null || !storyNode.get("x-regga-type").asText().equals("story")) continue;
+    				
+    				ReggaStory story = new ReggaStory();
+    				story.id = storyNode.get("id") != null && storyNode.get("id").isTextual() ? sanitizeName(storyNode.get("id").asText()) : storyId(storyNode, index);
+    				story.title = storyNode.get("title") != null && storyNode.get("title").isTextual() ? storyNode.get("title").asText() : null;
+    				story.tags = null;
+    				story.snipletSequence = null;
+    				
+    				if (storyNode.get("tags") != null && storyNode.get("tags").isArray()) {
+    					story.tags = new ArrayList<String>();
+    		        	Iterator<JsonNode> tags = storyNode.get("tags").elements();
+    		        	while (tags.hasNext()) {
+    		        		JsonNode tag = tags.next();
+    		        		story.tags.add(tag.asText());
+    		        	}
+    				}
+            		
+    				if (storyNode.get("snipletSequence") != null && storyNode.get("snipletSequence").isArray()) {
+    					story.snipletSequence = new ArrayList<String>();
+    		        	Iterator<JsonNode> snipletSequence = storyNode.get("snipletSequence").elements();
+    		        	while (snipletSequence.hasNext()) {
+    		        		JsonNode snipletId = snipletSequence.next();
+    		        		story.snipletSequence.add(snipletId.asText());
+    		        	}
+    				}
+    				
+    				if (reggaStories.get(story.id) != null) throw new Exception("Regga Story ids must be unique");
+    				reggaStories.put(story.id, story);
+            	}
+            }
+    	}
+    	catch(Exception e) {
+    		metrics.count("errors");
+    		LOGGER.error("Could not parse the Regga Stories", e);
+    	}
+    	return Collections.unmodifiableMap(reggaStories);
+    }
+    
+    protected boolean incremental() {
+    	return additionalProperties.get("incremental") != null 
+    		&& Boolean.valueOf(additionalProperties.get("incremental").toString());
+    }
+    
+    /**
+     * Size in characters above which example payloads are externalized, 0 to inline them all.
+     */
+    protected int payloadSizeLimit() {
+    	Object limit = additionalProperties.get("payloadSizeLimit");
+    	return limit != null && !limit.toString().trim().isEmpty() ? Math.max(0, Integer.parseInt(limit.toString().trim())) : 0;
+    }
+    
+    /**
+     * Cache of rendered sections kept in the output directory, null unless the incremental mode is enabled.
+     */
+    protected ReggaSectionCache getSectionCache() {
+    	return getRunContext().getSectionCache();
+    }
+    
+    /**
+     * Fingerprint of what every section depends on: spec attributes other than paths and definitions,
+     * generator options and templates.
+     */
+    private String globalFingerprint() {
+    	ReggaFingerprint fingerprint = new ReggaFingerprint().add(getClass().getName()).add(SECTION_CACHE_VERSION);
+    	JsonNode swaggerRaw = getSwaggerJsonNode();
+    	if (swaggerRaw != null) {
+    		Iterator<String> fieldNames = swaggerRaw.fieldNames();
+    		while (fieldNames.hasNext()) {
+    			String fieldName = fieldNames.next();
+    			if (fieldName.equals("paths") || fieldName.equals("definitions")) continue;
+    			fingerprint.add(fieldName).add(swaggerRaw.get(fieldName));
     		}
-    		catch(Exception e) {
-    			e.printStackTrace();
+    	}
+    	for (CliOption option : cliOptions()) {
+    		fingerprint.add(option.getOpt()).add(additionalProperties.get(option.getOpt()));
+    	}
+    	for (String templateFile : templateFiles()) {
+    		fingerprint.add(templateFile).add(readTemplateBytes(templateFile));
+    	}
+    	return fingerprint.toHex();
+    }
+    
+    /**
+     * Templates the generated files depend on, including the partials they use.
+     */
+    protected List<String> templateFiles() {
+    	List<String> templateFiles = new ArrayList<String>();
+    	for (SupportingFile supportingFile : supportingFiles()) {
+    		templateFiles.add(supportingFile.templateFile);
+    	}
+    	templateFiles.add(EXAMPLE_TEMPLATE);
+    	for (String language : exampleLanguages()) {
+    		templateFiles.add(exampleTemplate(language));
+    	}
+    	return templateFiles;
+    }
+    
+    /**
+     * Languages of the examples of the request sniplets, in the order they are written.
+     */
+    protected List<String> exampleLanguages() {
+    	List<String> languages = new ArrayList<String>();
+    	if (additionalProperties.get("exampleLanguages") != null) {
+    		StringTokenizer st = new StringTokenizer(additionalProperties.get("exampleLanguages").toString(), ",");
+    		while (st.hasMoreTokens()) {
+    			languages.add(st.nextToken());
     		}
     	}
-    	return reggaStories;
+    	return languages;
+    }
+    
+    private static String exampleTemplate(String language) {
+    	return "example_" + language + ".mustache";
+    }
+    
+    // templates compiled once per run, then renderers found by the service loader, then the url only
+    private ReggaExampleRenderers buildExampleRenderers() {
+    	Map<String, ReggaExampleRenderer> renderers = new LinkedHashMap<String, ReggaExampleRenderer>();
+    	Map<String, ReggaExampleRenderer> services = null;
+    	Template urlOnly = null;
+    	List<String> languages = exampleLanguages();
+    	for (String language : languages) {
+    		if (renderers.containsKey(language)) continue;
+    		if (readTemplateBytes(exampleTemplate(language)) != null) {
+    			renderers.put(language, new ReggaExampleRenderers.TemplateRenderer(language, compileTemplate(exampleTemplate(language))));
+    			continue;
+    		}
+    		if (services == null) {
+    			services = new LinkedHashMap<String, ReggaExampleRenderer>();
+    			for (ReggaExampleRenderer renderer : ServiceLoader.load(ReggaExampleRenderer.class, getClass().getClassLoader())) {
+    				if (!services.containsKey(renderer.getLanguage())) services.put(renderer.getLanguage(), renderer);
+    			}
+    		}
+    		if (services.containsKey(language)) {
+    			renderers.put(language, services.get(language));
+    			continue;
+    		}
+    		LOGGER.warn("No example renderer for " + language + ", its examples only give the url");
+    		if (urlOnly == null) urlOnly = compileTemplate(EXAMPLE_TEMPLATE);
+    		renderers.put(language, new ReggaExampleRenderers.TemplateRenderer(language, urlOnly));
+    	}
+    	return new ReggaExampleRenderers(languages, renderers);
+    }
+    
+    private byte[] readTemplateBytes(String templateFile) {
+    	try {
+    		return ReggaTemplateCache.read(templateDir(), embeddedTemplateDir(), templateFile);
+    	}
+    	catch (RuntimeException e) {
+    		LOGGER.warn("Could not read template " + templateFile + ": " + e.getMessage());
+    		return null;
+    	}
+    }
+    
+    /**
+     * Reads a template from the template directory, falling back to the embedded templates as the generator does.
+     */
+    protected String readTemplate(String templateFile) {
+    	byte[] template = readTemplateBytes(templateFile);
+    	if (template == null) throw new RuntimeException("Template " + templateFile + " not found");
+    	return new String(template, StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Compiles a template the way the generator compiles supporting files, partials are resolved from the template directory.
+     */
+    protected Template compileTemplate(String templateFile) {
+    	Mustache.Compiler compiler = processCompiler(Mustache.compiler())
+    		.withLoader(new Mustache.TemplateLoader() {
+				@Override
+				public Reader getTemplate(String name) {
+					return new StringReader(readTemplate(name + ".mustache"));
+				}
+			})
+    		.defaultValue("");
+    	return compiler.compile(readTemplate(templateFile));
+    }
+    
+    /**
+     * Fingerprint of the section rendering a tag: its operations as found in the raw spec, the sniplets
+     * rendered as their examples and the definitions they reference.
+     */
+    protected String fingerprintOperations(List<CodegenOperation> operationList) {
+    	ReggaRunContext context = getRunContext();
+    	ReggaFingerprint fingerprint = new ReggaFingerprint().add(context.getGlobalFingerprint());
+    	JsonNode swaggerRaw = context.getSwaggerJsonNode();
+    	JsonNode paths = swaggerRaw != null ? swaggerRaw.get("paths") : null;
+    	Set<String> refs = new TreeSet<String>();
+    	for (CodegenOperation operation : operationList) {
+    		fingerprint.add(operation.path).add(operation.httpMethod);
+    		JsonNode pathNode = paths != null ? paths.get(operation.path) : null;
+    		if (pathNode != null) {
+    			fingerprint.add(pathNode.get("parameters")).add(pathNode.get(operation.httpMethod.toLowerCase()));
+    			collectRefs(pathNode.get("parameters"), refs);
+    			collectRefs(pathNode.get(operation.httpMethod.toLowerCase()), refs);
+    		}
+    		// sniplets may be linked to sniplets of other operations
+    		List<Map<String, Object>> examples = operation.responses != null && operation.responses.size() > 0 ? operation.responses.get(0).examples : null;
+    		if (examples == null) continue;
+    		for (Map<String, Object> example : examples) {
+    			for (ReggaSniplet sniplet : context.getSniplets().getRequestSniplets(operation.path, operation.httpMethod, example.get("contentType").toString())) {
+    				fingerprint.add(sniplet.title).add(sniplet.url).add(sniplet.headers).add(sniplet.data);
+    				if (sniplet.responseSniplet != null) {
+    					fingerprint.add(sniplet.responseSniplet.title).add(sniplet.responseSniplet.url).add(sniplet.responseSniplet.data);
+    				}
+    			}
+    		}
+    	}
+    	addDefinitions(fingerprint, refs);
+    	return fingerprint.toHex();
+    }
+    
+    /**
+     * Fingerprint of the section rendering a model.
+     */
+    protected String fingerprintModel(CodegenModel model) {
+    	ReggaFingerprint fingerprint = new ReggaFingerprint().add(getRunContext().getGlobalFingerprint())
+    		.add(model.name).add(model.classname).add(model.description);
+    	for (CodegenProperty property : model.vars) {
+    		fingerprint.add(property.name).add(property.datatype).add(property.complexType).add(property.description)
+    			.add(property.required).add(property.isContainer).add(property.isPrimitiveType);
+    	}
+    	Set<String> refs = new TreeSet<String>();
+    	refs.add(model.name);
+    	addDefinitions(fingerprint, refs);
+    	return fingerprint.toHex();
+    }
+    
+    private void addDefinitions(ReggaFingerprint fingerprint, Set<String> refs) {
+    	JsonNode swaggerRaw = getRunContext().getSwaggerJsonNode();
+    	JsonNode definitions = swaggerRaw != null ? swaggerRaw.get("definitions") : null;
+    	if (definitions == null) return;
+    	Set<String> visited = new HashSet<String>();
+    	LinkedList<String> queue = new LinkedList<String>(refs);
+    	while (!queue.isEmpty()) {
+    		String ref = queue.poll();
+    		if (!visited.add(ref)) continue;
+    		JsonNode definition = definitions.get(ref);
+    		fingerprint.add(ref).add(definition);
+    		Set<String> nestedRefs = new TreeSet<String>();
+    		collectRefs(definition, nestedRefs);
+    		queue.addAll(nestedRefs);
+    	}
+    }
+    
+    private static void collectRefs(JsonNode node, Set<String> refs) {
+    	if (node == null) return;
+    	if (node.isObject()) {
+    		JsonNode ref = node.get("$ref");
+    		if (ref != null && ref.isTextual()) {
+    			String value = ref.asText();
+    			refs.add(value.startsWith("#/definitions/") ? value.substring("#/definitions/".length()) : value);
+    		}
+    	}
+    	Iterator<JsonNode> elements = node.elements();
+    	while (elements.hasNext()) {
+    		collectRefs(elements.next(), refs);
+    	}
+    }
+    
+    // stable between runs, unlike random ids
+    private static String storyId(JsonNode storyNode, int index) {
+    	String content = storyNode.toString();
+    	return ReggaHashes.shortId("story", "x-regga-stories #" + index, content, 0, content.length());
+    }
+    
+    @Override
+    public void processOpts() {
+    	startRun();
+    	super.processOpts();
+    	runStart = metrics.start();
+    }
+    
+    // processOpts is the first call of the generator, state left by a previous run is dropped
+    private synchronized void startRun() {
+    	if (runThread != null && runThread != Thread.currentThread() && runThread.isAlive()) {
+    		throw new IllegalStateException(getName() + " codegen is already generating on " + runThread.getName() + ", use one instance per concurrent run");
+    	}
+    	// a run that failed on this thread or on a thread that ended did not release its pools
+    	if (runThread != null) shutdownPools();
+    	runThread = Thread.currentThread();
+    	if (specSourceLoaded) {
+    		specSource = null;
+    		specSourceLoaded = false;
+    	}
+    	swagger = null;
+    	operationIndex = null;
+    	swaggerJsonNode = null;
+    	reggaSniplets = new ReggaSnipletRegistry();
+    	reggaSnipletParser = null;
+    	exampleCache = null;
+    	metrics = new ReggaMetrics();
+    	renderStart = 0;
+    	runContext = null;
+    }
+    
+    // only the thread running the generation releases it, a refused run must not end the one in progress
+    private synchronized void endRun() {
+    	if (runThread != Thread.currentThread()) return;
+    	runThread = null;
+    	shutdownPools();
+    	// a mapped spec stays locked until its buffer is collected, it is not kept by a codegen waiting for its next run
+    	if (specSourceLoaded) {
+    		specSource = null;
+    		specSourceLoaded = false;
+    	}
+    }
+    
+    private synchronized void shutdownPools() {
+    	if (forkJoinPool != null) {
+    		forkJoinPool.shutdown();
+    		forkJoinPool = null;
+    	}
+    	if (runContext != null && runContext.getParallelSections() != null) runContext.getParallelSections().shutdown();
+    }
+    
+    /**
+     * Generates the documentation of the swagger with this codegen. The run is ended and its threads are released
+     * even when the generation fails, so that the instance can generate again from any thread.
+     */
+    public List<File> generate(Swagger swagger) {
+    	try {
+    		return new DefaultGenerator().opts(new ClientOptInput().opts(new ClientOpts()).swagger(swagger).config(this)).generate();
+    	}
+    	finally {
+    		endRun();
+    	}
+    }
+    
+    /**
+     * Freezes the state gathered from the spec, before the supporting files are rendered.
+     */
+    private void buildRunContext() {
+    	int payloadSizeLimit = payloadSizeLimit();
+    	ReggaPayloadStore payloadStore = payloadSizeLimit > 0 ? new ReggaPayloadStore(new File(outputFolder()), payloadSizeLimit, metrics) : null;
+    	ReggaSectionCache sectionCache = null;
+    	String globalFingerprint = null;
+    	if (incremental()) {
+    		sectionCache = new ReggaSectionCache(new File(outputFolder(), ".regga-cache" + File.separator + "sections"), payloadStore);
+    		globalFingerprint = globalFingerprint();
+    	}
+    	int renderThreads = getRenderThreads();
+    	ReggaSnipletRegistry sniplets = reggaSniplets.freeze();
+    	Map<String, ReggaStory> stories = parseReggaStories();
+    	long graphStart = metrics.start();
+    	ReggaSnipletGraph snipletGraph = ReggaSnipletGraph.build(sniplets, stories);
+    	metrics.stop("snipletGraph", graphStart);
+    	if (snipletGraph.getDanglingIds() > 0) metrics.add("danglingSnipletIds", snipletGraph.getDanglingIds());
+    	if (snipletGraph.getCycleSniplets() > 0) metrics.add("snipletCycles", snipletGraph.getCycleSniplets());
+    	runContext = new ReggaRunContext(swagger, operationIndex, getSwaggerJsonNode(), sniplets, stories, snipletGraph,
+    		globalFingerprint, sectionCache, prettifyCache, metrics, renderThreads > 1 ? new ReggaParallelSections(renderThreads) : null,
+    		payloadStore, buildExampleRenderers());
     }
     
     @Override
 	public void preprocessSwagger(Swagger swagger) {
     	this.swagger = swagger;
+    	this.operationIndex = new ReggaOperationIndex(swagger);
+    	this.exampleCache = new ReggaExampleCache(swagger.getDefinitions());
+    }
+    
+    @Override
+    public void processSwagger(Swagger swagger) {
+    	try {
+    		completeRun(swagger);
+    	}
+    	finally {
+    		endRun();
+    	}
     }
     
-    private ReggaSniplet parseReggaSniplet(Map<String, ReggaSniplet> reggaSniplets, CodegenOperation operation, String contentType, JsonNode snipletNode, ReggaSnipletType snipletType, boolean trustAsSniplet) throws Exception {
+    private void completeRun(Swagger swagger) {
+    	super.processSwagger(swagger);
+    	// sections rendered on the pool take their place in the written files
+    	ReggaParallelSections parallelSections = runContext != null ? runContext.getParallelSections() : null;
+    	if (parallelSections != null) {
+    		try {
+    			for (SupportingFile supportingFile : supportingFiles()) {
+    				parallelSections.resolve(new File(outputFolder() + File.separator + supportingFile.folder, supportingFile.destinationFilename));
+    			}
+    		}
+    		catch (IOException e) {
+    			throw new RuntimeException("Could not write the rendered sections", e);
+    		}
+    		finally {
+    			parallelSections.shutdown();
+    		}
+    		metrics.add("parallelSections", parallelSections.size());
+    	}
+    	LOGGER.info("Regga Sniplets: " + reggaSniplets.size() + " parsed, " + prettifyCache + ", " + exampleCache);
+    	ReggaSectionCache sectionCache = runContext != null ? runContext.getSectionCache() : null;
+    	if (sectionCache != null) {
+    		sectionCache.prune();
+    		LOGGER.info("Incremental generation: " + sectionCache);
+    	}
+    	// payloads of the sections rendered and reused by this run are all known once the files are written
+    	ReggaPayloadStore payloadStore = runContext != null ? runContext.getPayloadStore() : null;
+    	if (payloadStore != null) payloadStore.prune();
     	
-		if (!trustAsSniplet && (snipletNode.get("x-regga-type") == null || !snipletNode.get("x-regga-type").asText().equals("sniplet"))) {
-			LOGGER.warn("Example is not of Regga Sniplet type");
-			return null;
-		}
-		
-		ReggaSniplet sniplet = new ReggaSniplet();
-		
-		sniplet.id = snipletNode.get("id") != null && snipletNode.get("id").isTextual() ? snipletNode.get("id").asText() : "sniplet" + new Random().nextInt(999999);
-		sniplet.title = snipletNode.get("title") != null && snipletNode.get("title").isTextual() ? snipletNode.get("title").asText() : null;
-		sniplet.data = snipletNode.get("data")  != null && snipletNode.get("data").isTextual() ? snipletNode.get("data").textValue() : null;
-		
-		if (snipletNode.get("tags") != null && snipletNode.get("tags").isArray()) {
-			sniplet.tags = new ArrayList<String>();
-        	Iterator<JsonNode> tags = snipletNode.get("tags").elements();
-        	while (tags.hasNext()) {
-        		JsonNode tag = tags.next();
-        		sniplet.tags.add(tag.asText());
-        	}
-		}
-		
-		Map<String, String> headers = new HashMap<String, String>();									
-		JsonNode requestHeadersNode = snipletNode.get("headers");
-		if (requestHeadersNode != null) {
-			Iterator<String> requestHeadersNodeAttrs = requestHeadersNode.fieldNames();
-			while (requestHeadersNodeAttrs.hasNext()) {
-				String requestHeadersNodeAttr = requestHeadersNodeAttrs.next();											
-				headers.put(requestHeadersNodeAttr, requestHeadersNode.get(requestHeadersNodeAttr).textValue());
-			}
-		}
-		sniplet.headers = headers;
-		
-		String url = null;
-		if (snipletNode.get("uri") != null && (snipletNode.get("uri").asText().startsWith("http") || snipletNode.get("uri").asText().startsWith("ws"))) {
-			url = snipletNode.get("uri").toString();
-		}
-		else {			
-			String scheme = swagger.getSchemes() != null && swagger.getSchemes().size() > 0 ? swagger.getSchemes().get(0).toValue() : "http";
-			url = scheme + "://" + swagger.getHost() + swagger.getBasePath();
-			if (snipletNode.get("uri") == null) url += operation.path;
-			else url += snipletNode.get("uri").asText();
-		}
-		sniplet.url = url;
-		
-		if (snipletNode.get("requestSnipletId") != null && snipletNode.get("requestSnipletId").isTextual()) sniplet.requestSnipletId = snipletNode.get("requestSnipletId").asText();
-		else if (snipletNode.get("requestSniplet") != null) {			
-			ReggaSniplet childSniplet = parseReggaSniplet(reggaSniplets, operation, contentType, snipletNode.get("requestSniplet"), ReggaSnipletType.REQUEST, true);
-			childSniplet.responseSnipletId = sniplet.id;
-			sniplet.requestSnipletId = childSniplet.id;
-		}
-		
-		if (snipletNode.get("responseSnipletId") != null && snipletNode.get("responseSnipletId").isTextual()) sniplet.responseSnipletId = snipletNode.get("responseSnipletId").asText();
-		// TODO probably remove the following lines as one response can be related to multiple requests
-		else if (snipletNode.get("responseSniplet") != null) {			
-			ReggaSniplet childSniplet = parseReggaSniplet(reggaSniplets, operation, contentType, snipletNode.get("responseSniplet"), ReggaSnipletType.RESPONSE, true);
-			childSniplet.requestSnipletId = sniplet.id;
-			sniplet.responseSnipletId = childSniplet.id;
-		}
-		
-		if (reggaSniplets.get(sniplet.id) != null) throw new Exception("Regga Sniplet ids must be unique");
-		reggaSniplets.put(sniplet.id, sniplet);
-
-		sniplet.contentType = contentType;
-		if (snipletType == ReggaSnipletType.REQUEST) {
-			sniplet.requestPath = operation.path;
-			sniplet.requestMethod = operation.httpMethod;			
-		}
-		else if (snipletType == ReggaSnipletType.RESPONSE) {
-			sniplet.responseCode = operation.responses != null && operation.responses.size() > 0 ? operation.responses.get(0).code : null;
-		}
-		
-		return sniplet;
+    	// supporting files are rendered between postProcessSupportingFileData and processSwagger
+    	if (renderStart != 0) metrics.stop("render", renderStart);
+    	metrics.stop("generation", runStart);
+    	metrics.add("sniplets", reggaSniplets.size());
+    	// counted by the prettify calls of this run, reported even when there were none
+    	metrics.add("prettifyCalls", 0);
+    	metrics.add("prettifyCacheHits", 0);
+    	if (exampleCache != null) metrics.add("examplesGenerated", exampleCache.getHits() + exampleCache.getMisses());
+    	if (runContext != null) {
+    		metrics.add("codeExamplesRendered", runContext.getExampleRenderers().getMisses());
+    		metrics.add("codeExamplesShared", runContext.getExampleRenderers().getHits());
+    	}
+    	for (SupportingFile supportingFile : supportingFiles()) {
+    		File file = new File(outputFolder() + File.separator + supportingFile.folder, supportingFile.destinationFilename);
+    		if (file.isFile()) metrics.add("bytesWritten", file.length());
+    	}
+    	LOGGER.info("Generation metrics: " + metrics);
+    	
+    	if (metricsReport()) {
+    		File reportFile = new File(outputFolder(), METRICS_REPORT);
+    		try {
+	    		Map<String, Object> report = new LinkedHashMap<String, Object>();
+	    		report.put("generator", getName());
+	    		report.put("inputSpec", getInputSpec());
+	    		report.putAll(metrics.toReport());
+	    		metrics.writeReport(reportFile, report);
+	    		LOGGER.info("writing file " + reportFile);
+    		}
+    		catch (IOException e) {
+    			LOGGER.warn("Could not write " + reportFile + ": " + e.getMessage());
+    		}
+    	}
+    }
+    
+    protected boolean metricsReport() {
+    	return additionalProperties.get("metricsReport") != null 
+    		&& Boolean.valueOf(additionalProperties.get("metricsReport").toString());
+    }
+    
+    @Override
+    public Map<String, Object> postProcessSupportingFileData(Map<String, Object> objs) {
+    	renderStart = metrics.start();
+    	buildRunContext();
+    	return super.postProcessSupportingFileData(objs);
     }
     
     @Override
     @SuppressWarnings("unchecked")
 	public Map<String, Object> postProcessOperations(Map<String, Object> objs) {
-    	
+    	long start = metrics.start();
         Map<String, Object> operations = (Map<String, Object>) objs.get("operations");        
         List<CodegenOperation> operationList = (List<CodegenOperation>) operations.get("operation");
-        for (CodegenOperation operation : operationList) {
-    		
-        	// ensure all operation examples are available (necessary as DELETE examples are for some reason not include during the swagger parsing)
-        	if (operation.examples == null && operation.responses.size() > 0 && operation.responses.get(0).examples != null && operation.responses.get(0).examples.size() > 0) {
-
-        		// TODO support other responses than the first/success one ?
-        		CodegenResponse successResponse = operation.responses.get(0);
-        		
-        		Operation operationTmp = swagger.getPaths().get(operation.path).getOperationMap().get(HttpMethod.valueOf(operation.httpMethod));
-        		Response responseTmp = operationTmp.getResponses().get(successResponse.code);	
-        		operation.examples = new ExampleGenerator(swagger.getDefinitions()).generate(responseTmp.getExamples(), operationTmp.getProduces(), responseTmp.getSchema());
-        	}
-    		
-        	// retrieve regga sniplets
-        	if (operation.examples != null) {
-    			for (Map<String, String> example : operation.examples) {
-    				
-        			String contentType = example.get("contentType");
-    				String exampleBody = example.get("example");
-    				
-    				if (contentType.equals("application/json")) {
-						try {
-							JsonNode json = new ObjectMapper().readTree(exampleBody);
-							// example must be an array
-							if (json.isArray()) {
-								Iterator<JsonNode> i = json.elements();
-								while (i.hasNext()) {
-									JsonNode snipletNode = i.next();										
-									parseReggaSniplet(reggaSniplets, operation, contentType, snipletNode, ReggaSnipletType.RESPONSE, false);
-								}
-							}
-							else {
-								LOGGER.warn("Example is not an array of Regga Sniplets");
-							}
-						} 
-						catch (Exception e) {
-							e.printStackTrace();
-						}
+        
+        // sniplets are parsed per operation, possibly concurrently, then registered in operation order
+        // so that duplicate id detection and the generated output do not depend on the parallelism
+        List<List<ParsedExample>> parsedExamples = new ArrayList<List<ParsedExample>>(operationList.size());
+        // created before the tasks are submitted, which publishes it to the pool threads
+        final ReggaSnipletParser parser = getReggaSnipletParser();
+        int parallelism = getParallelism();
+        if (parallelism > 1 && operationList.size() > 1) {
+        	List<Callable<List<ParsedExample>>> tasks = new ArrayList<Callable<List<ParsedExample>>>(operationList.size());
+        	for (final CodegenOperation operation : operationList) {
+        		tasks.add(new Callable<List<ParsedExample>>() {
+					@Override
+					public List<ParsedExample> call() throws Exception {
+						return parseOperationExamples(parser, operation);
 					}
-					else if (contentType.equals("application/xml")) {
-						// TODO support xml parsing
-						LOGGER.warn("XML contentType not supported");
-					}
-					else {
-						LOGGER.warn("Example contentType not supported: " + contentType);
-					}		
-    			}
+				});
+        	}
+        	try {
+	        	for (Future<List<ParsedExample>> future : getForkJoinPool(parallelism).invokeAll(tasks)) {
+	        		parsedExamples.add(future.get());
+	        	}
+        	}
+        	catch (InterruptedException e) {
+        		Thread.currentThread().interrupt();
+        		throw new RuntimeException(e);
+        	}
+        	catch (ExecutionException e) {
+        		throw new RuntimeException(e.getCause());
         	}
         }
+        else {
+        	for (CodegenOperation operation : operationList) {
+        		parsedExamples.add(parseOperationExamples(parser, operation));
+        	}
+        }
+        
+        for (List<ParsedExample> operationExamples : parsedExamples) {
+        	for (ParsedExample parsedExample : operationExamples) {
+				try {
+					parser.register(parsedExample);
+				} 
+				catch (Exception e) {
+					metrics.count("errors");
+					LOGGER.error("Could not register the Regga Sniplets of " + getInputSpec(), e);
+				}
+        	}
+        }
+        metrics.stop("snipletParsing", start);
         return objs;
     }
     
+    private static boolean isSnipletArray(String exampleBody) {
+    	for (int i = 0; exampleBody != null && i < exampleBody.length(); i++) {
+    		if (!Character.isWhitespace(exampleBody.charAt(i))) return exampleBody.charAt(i) == '[';
+    	}
+    	return false;
+    }
+    
+    private List<ParsedExample> parseOperationExamples(ReggaSnipletParser parser, CodegenOperation operation) {
+    	
+    	List<ParsedExample> parsedExamples = new ArrayList<ParsedExample>();
+    	
+    	// ensure all operation examples are available (necessary as DELETE examples are for some reason not include during the swagger parsing)
+    	if (operation.examples == null && operation.responses.size() > 0 && operation.responses.get(0).examples != null && operation.responses.get(0).examples.size() > 0) {
+
+    		// TODO support other responses than the first/success one ?
+    		CodegenResponse successResponse = operation.responses.get(0);
+    		
+    		Operation operationTmp = operationIndex.getOperation(operation.path, operation.httpMethod);
+    		Response responseTmp = operationTmp.getResponses().get(successResponse.code);	
+    		// operations sharing a response schema share the generated examples
+    		operation.examples = exampleCache.generate(responseTmp.getExamples(), operationTmp.getProduces(), responseTmp.getSchema());
+    	}
+		
+    	// retrieve regga sniplets
+    	if (operation.examples != null) {
+			for (Map<String, String> example : operation.examples) {
+				
+    			String contentType = example.get("contentType");
+				String exampleBody = example.get("example");
+				
+				if (contentType.equals("application/json")) {
+					// sniplets are streamed out of the example, no tree is built for it
+					parsedExamples.add(parser.parse(operation, contentType, exampleBody));
+					metrics.count("examplesParsed");
+				}
+				else if (contentType.equals("application/xml") && isSnipletArray(exampleBody)) {
+					// the sniplets are described in json as well, their data is xml
+					parsedExamples.add(parser.parse(operation, contentType, exampleBody));
+					metrics.count("examplesParsed");
+				}
+				else if (contentType.equals("application/xml")) {
+					// plain xml example, generated from the schema or written in the spec
+					LOGGER.warn("XML example is not an array of Regga Sniplets");
+					metrics.count("examplesSkipped." + contentType);
+				}
+				else {
+					LOGGER.warn("Example contentType not supported: " + contentType);
+					metrics.count("examplesSkipped." + contentType);
+				}		
+			}
+    	}
+    	return parsedExamples;
+    }
+    
+    private int getParallelism() {
+    	return threads("parallelism");
+    }
+    
+    /**
+     * Threads rendering the sections of the supporting files, 1 to render them in place.
+     */
+    protected int getRenderThreads() {
+    	return threads("parallelRendering");
+    }
+    
+    private int threads(String option) {
+    	Object threads = additionalProperties.get(option);
+    	if (threads == null) return 1;
+    	if (threads.toString().equals("auto")) return Runtime.getRuntime().availableProcessors();
+    	return Math.max(1, Integer.parseInt(threads.toString().trim()));
+    }
+    
+    private synchronized ForkJoinPool getForkJoinPool(int parallelism) {
+    	if (forkJoinPool == null) forkJoinPool = new ForkJoinPool(parallelism);
+    	return forkJoinPool;
+    }
+    
     @Override
     public String escapeText(String input) {
         return input;
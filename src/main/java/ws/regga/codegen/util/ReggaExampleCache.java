@@ -0,0 +1,98 @@
+package ws.regga.codegen.util;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import io.swagger.codegen.examples.ExampleGenerator;
+import io.swagger.models.Model;
+import io.swagger.models.properties.Property;
+import io.swagger.models.properties.RefProperty;
+import io.swagger.util.Json;
+
+/**
+ * Examples generated from response schemas, for operations whose examples are missing.
+ * One generator is shared by the run and the examples are cached by (schema, produces, examples hash):
+ * operations returning the same model only generate its example once.
+ */
+public class ReggaExampleCache {
+
+	private final ExampleGenerator generator;
+	private final Map<String, List<Map<String, String>>> entries = new HashMap<String, List<Map<String, String>>>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	public ReggaExampleCache(Map<String, Model> definitions) {
+		this.generator = new ExampleGenerator(definitions);
+	}
+
+	/**
+	 * Same as {@link ExampleGenerator#generate(Map, List, Property)}, the returned examples are shared and must not be modified.
+	 */
+	public List<Map<String, String>> generate(Map<String, Object> examples, List<String> produces, Property schema) {
+		String key = key(examples, produces, schema);
+		List<Map<String, String>> generated;
+		if (key != null) {
+			synchronized (entries) {
+				generated = entries.get(key);
+			}
+			if (generated != null) {
+				hits.incrementAndGet();
+				return generated;
+			}
+		}
+		misses.incrementAndGet();
+		generated = generator.generate(examples, produces, schema);
+		if (key != null && generated != null) {
+			synchronized (entries) {
+				entries.put(key, generated);
+			}
+		}
+		return generated;
+	}
+
+	// null when the schema or the examples cannot be serialized, examples are then generated every time
+	private static String key(Map<String, Object> examples, List<String> produces, Property schema) {
+		try {
+			StringBuilder key = new StringBuilder();
+			if (schema instanceof RefProperty) key.append(((RefProperty) schema).get$ref());
+			else if (schema != null) key.append(Json.mapper().writeValueAsString(schema));
+			key.append('\n').append(produces);
+			key.append('\n').append(examples != null ? ReggaHashes.sha256Hex(Json.mapper().writeValueAsString(examples)) : null);
+			return key.toString();
+		}
+		catch (JsonProcessingException e) {
+			return null;
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * Share of the lookups answered from the cache.
+	 */
+	public double getHitRate() {
+		long lookups = getHits() + getMisses();
+		return lookups > 0 ? (double) getHits() / lookups : 0;
+	}
+
+	@Override
+	public String toString() {
+		return "example cache: " + size() + " entries, " + getHits() + " hits, " + getMisses() + " misses (" + Math.round(getHitRate() * 100) + "% hit rate)";
+	}
+}
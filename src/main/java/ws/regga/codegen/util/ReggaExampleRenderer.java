@@ -0,0 +1,25 @@
+package ws.regga.codegen.util;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Renders the request of a Regga Sniplet as a code example in one of the exampleLanguages.
+ *
+ * The built-in renderers are the example_&lt;language&gt;.mustache templates (shell, python, javascript and java),
+ * a template of the same name in the template directory takes precedence. Other renderers are looked up with
+ * {@link java.util.ServiceLoader}: list them in META-INF/services/ws.regga.codegen.util.ReggaExampleRenderer.
+ * Renderers are shared by the run and may be called from several rendering threads.
+ */
+public interface ReggaExampleRenderer {
+
+	/**
+	 * Language of the example, as listed in the exampleLanguages option and written after the code fence.
+	 */
+	String getLanguage();
+
+	/**
+	 * Writes the code of the example, without the code fence.
+	 */
+	void render(ReggaExampleRequest request, Writer out) throws IOException;
+}
@@ -0,0 +1,131 @@
+package ws.regga.codegen.util;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.samskivert.mustache.Template;
+
+/**
+ * Example renderers of the languages of a run, with the examples they rendered.
+ *
+ * Examples are cached by language and request: a request shared by several sniplets or operations
+ * is rendered once per language, the rendering work follows the number of distinct examples.
+ */
+public class ReggaExampleRenderers {
+
+	public static final int DEFAULT_MAX_ENTRIES = 16384;
+
+	private final List<String> languages;
+	private final Map<String, ReggaExampleRenderer> renderers;
+	private final Map<ExampleKey, String> examples;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	private static final class ExampleKey {
+		private final String language;
+		private final ReggaExampleRequest request;
+
+		private ExampleKey(String language, ReggaExampleRequest request) {
+			this.language = language;
+			this.request = request;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof ExampleKey)) return false;
+			ExampleKey other = (ExampleKey) o;
+			return language.equals(other.language) && request.equals(other.request);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * language.hashCode() + request.hashCode();
+		}
+	}
+
+	/**
+	 * Renderer of a compiled example template.
+	 */
+	public static class TemplateRenderer implements ReggaExampleRenderer {
+		private final String language;
+		private final Template template;
+
+		public TemplateRenderer(String language, Template template) {
+			this.language = language;
+			this.template = template;
+		}
+
+		@Override
+		public String getLanguage() {
+			return language;
+		}
+
+		@Override
+		public void render(ReggaExampleRequest request, Writer out) throws IOException {
+			template.execute(request, out);
+		}
+	}
+
+	/**
+	 * @param languages languages in the order their examples are written
+	 * @param renderers renderer of each language
+	 */
+	public ReggaExampleRenderers(List<String> languages, Map<String, ReggaExampleRenderer> renderers) {
+		this(languages, renderers, DEFAULT_MAX_ENTRIES);
+	}
+
+	public ReggaExampleRenderers(List<String> languages, Map<String, ReggaExampleRenderer> renderers, final int maxEntries) {
+		this.languages = Collections.unmodifiableList(languages);
+		this.renderers = renderers;
+		this.examples = new LinkedHashMap<ExampleKey, String>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<ExampleKey, String> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	public List<String> getLanguages() {
+		return languages;
+	}
+
+	/**
+	 * Returns the code of the example of the request in the language, rendered once per distinct request.
+	 */
+	public String render(String language, ReggaExampleRequest request) throws IOException {
+		ExampleKey key = new ExampleKey(language, request);
+		String example;
+		synchronized (examples) {
+			example = examples.get(key);
+		}
+		if (example != null) {
+			hits.incrementAndGet();
+			return example;
+		}
+		misses.incrementAndGet();
+		ReggaExampleRenderer renderer = renderers.get(language);
+		if (renderer == null) throw new IllegalArgumentException("No example renderer for " + language);
+		StringWriter out = new StringWriter();
+		renderer.render(request, out);
+		example = out.toString();
+		synchronized (examples) {
+			examples.put(key, example);
+		}
+		return example;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+}
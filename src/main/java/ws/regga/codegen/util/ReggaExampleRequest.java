@@ -0,0 +1,184 @@
+package ws.regga.codegen.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.samskivert.mustache.Mustache;
+import com.samskivert.mustache.Template;
+
+/**
+ * Request of a Regga Sniplet, as given to the {@link ReggaExampleRenderer}s and to the example templates.
+ *
+ * Requests are compared by value: the examples of identical requests are rendered once per language.
+ */
+public final class ReggaExampleRequest {
+
+	/**
+	 * Header sent with the request, besides Content-Type and Accept.
+	 */
+	public static final class Header {
+		public final String name;
+		public final String value;
+
+		Header(String name, String value) {
+			this.name = name;
+			this.value = value;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Header)) return false;
+			return name.equals(((Header) o).name) && value.equals(((Header) o).value);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * name.hashCode() + value.hashCode();
+		}
+	}
+
+	// escapes the text for a double quoted string literal, in the languages using C escapes
+	private static final Mustache.Lambda DOUBLE_QUOTED = new Mustache.Lambda() {
+		@Override
+		public void execute(Template.Fragment frag, Writer out) throws IOException {
+			String text = frag.execute();
+			for (int i = 0; i < text.length(); i++) {
+				char c = text.charAt(i);
+				if (c == '"' || c == '\\') out.write('\\');
+				if (c == '\n') out.write("\\n");
+				else if (c == '\r') out.write("\\r");
+				else if (c == '\t') out.write("\\t");
+				else out.write(c);
+			}
+		}
+	};
+
+	// escapes the text for a shell single quoted string, a quote closes the string, is escaped and opens it again
+	private static final Mustache.Lambda SINGLE_QUOTED = new Mustache.Lambda() {
+		@Override
+		public void execute(Template.Fragment frag, Writer out) throws IOException {
+			String text = frag.execute();
+			for (int i = 0; i < text.length(); i++) {
+				char c = text.charAt(i);
+				if (c == '\'') out.write("'\\''");
+				else out.write(c);
+			}
+		}
+	};
+
+	// escapes the text for a Python triple quoted string literal, line breaks are kept
+	private static final Mustache.Lambda PYTHON_TRIPLE_QUOTED = new Mustache.Lambda() {
+		@Override
+		public void execute(Template.Fragment frag, Writer out) throws IOException {
+			String text = frag.execute();
+			for (int i = 0; i < text.length(); i++) {
+				char c = text.charAt(i);
+				if (c == '\'' || c == '\\') out.write('\\');
+				if (c == '\r') out.write("\\r");
+				else out.write(c);
+			}
+		}
+	};
+
+	// escapes the text for a JavaScript template literal, line breaks are kept and ${ is not substituted
+	private static final Mustache.Lambda TEMPLATE_LITERAL = new Mustache.Lambda() {
+		@Override
+		public void execute(Template.Fragment frag, Writer out) throws IOException {
+			String text = frag.execute();
+			for (int i = 0; i < text.length(); i++) {
+				char c = text.charAt(i);
+				if (c == '`' || c == '\\' || (c == '$' && i + 1 < text.length() && text.charAt(i + 1) == '{')) out.write('\\');
+				if (c == '\r') out.write("\\r");
+				else out.write(c);
+			}
+		}
+	};
+
+	public final String method;
+	public final String methodLowerCase;
+	public final String url;
+	// url up to the query, then each query parameter with its ? or & separator
+	public final String urlStart;
+	public final List<String> urlParts;
+	public final String contentType;
+	public final List<Header> headers;
+	// prettified body, null when there is none or when it is written to payloadFile
+	public final String body;
+	// externalized body, relative to the output directory
+	public final String payloadFile;
+	public final boolean hasBody;
+
+	public final Mustache.Lambda fnDoubleQuoted = DOUBLE_QUOTED;
+	public final Mustache.Lambda fnSingleQuoted = SINGLE_QUOTED;
+	public final Mustache.Lambda fnPythonTripleQuoted = PYTHON_TRIPLE_QUOTED;
+	public final Mustache.Lambda fnTemplateLiteral = TEMPLATE_LITERAL;
+
+	private final int hash;
+
+	/**
+	 * @param headers headers of the sniplet, in their iteration order
+	 */
+	public ReggaExampleRequest(String method, String url, String contentType, Map<String, String> headers, String body, String payloadFile) {
+		this.method = method;
+		this.methodLowerCase = method != null ? method.toLowerCase() : null;
+		this.url = url;
+		this.contentType = contentType;
+		Map<String, String> headerMap = headers != null ? headers : Collections.<String, String>emptyMap();
+		this.headers = new ArrayList<Header>(headerMap.size());
+		for (Map.Entry<String, String> header : headerMap.entrySet()) {
+			this.headers.add(new Header(header.getKey(), String.valueOf(header.getValue())));
+		}
+		this.body = payloadFile == null ? body : null;
+		this.payloadFile = payloadFile;
+		this.hasBody = this.body != null || payloadFile != null;
+
+		List<String> parts = new ArrayList<String>();
+		int start = 0;
+		String value = String.valueOf(url);
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '?' || c == '&') {
+				parts.add(value.substring(start, i));
+				start = i;
+			}
+		}
+		parts.add(value.substring(start));
+		this.urlStart = parts.get(0);
+		this.urlParts = parts.subList(1, parts.size());
+
+		int h = String.valueOf(method).hashCode();
+		h = 31 * h + String.valueOf(url).hashCode();
+		h = 31 * h + String.valueOf(contentType).hashCode();
+		h = 31 * h + this.headers.hashCode();
+		h = 31 * h + String.valueOf(this.body).hashCode();
+		h = 31 * h + String.valueOf(payloadFile).hashCode();
+		this.hash = h;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (!(o instanceof ReggaExampleRequest)) return false;
+		ReggaExampleRequest other = (ReggaExampleRequest) o;
+		return hash == other.hash
+			&& equal(method, other.method)
+			&& equal(url, other.url)
+			&& equal(contentType, other.contentType)
+			&& headers.equals(other.headers)
+			&& equal(body, other.body)
+			&& equal(payloadFile, other.payloadFile);
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	private static boolean equal(Object a, Object b) {
+		return a == null ? b == null : a.equals(b);
+	}
+}
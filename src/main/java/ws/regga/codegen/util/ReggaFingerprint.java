@@ -0,0 +1,44 @@
+package ws.regga.codegen.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Incremental SHA-256 fingerprint of the values a rendered section depends on.
+ */
+public class ReggaFingerprint {
+
+	private static final byte[] SEPARATOR = new byte[] { 0 };
+	private static final byte[] NULL = new byte[] { 1 };
+
+	private final MessageDigest digest;
+
+	public ReggaFingerprint() {
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e) {
+			// SHA-256 is required on every Java platform
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public ReggaFingerprint add(Object value) {
+		if (value == null) digest.update(NULL);
+		else digest.update(value.toString().getBytes(StandardCharsets.UTF_8));
+		digest.update(SEPARATOR);
+		return this;
+	}
+
+	public ReggaFingerprint add(byte[] value) {
+		if (value == null) digest.update(NULL);
+		else digest.update(value);
+		digest.update(SEPARATOR);
+		return this;
+	}
+
+	public String toHex() {
+		return ReggaHashes.toHex(digest.digest());
+	}
+}
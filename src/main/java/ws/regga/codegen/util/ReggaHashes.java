@@ -0,0 +1,83 @@
+package ws.regga.codegen.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Content hashing helpers used to address cached files.
+ */
+public final class ReggaHashes {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private ReggaHashes() {
+	}
+
+	public static String sha256Hex(byte[] data) {
+		try {
+			return toHex(MessageDigest.getInstance("SHA-256").digest(data));
+		}
+		catch (NoSuchAlgorithmException e) {
+			// SHA-256 is required on every Java platform
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public static String sha256Hex(String data) {
+		return sha256Hex(data.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * SHA-256 of a range of characters, hashed as UTF-16 code units without copying the range.
+	 */
+	public static String sha256Hex(CharSequence chars, int start, int end) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte[] buffer = new byte[Math.min(8192, Math.max(2, (end - start) * 2))];
+			int length = 0;
+			for (int i = start; i < end; i++) {
+				char c = chars.charAt(i);
+				buffer[length++] = (byte) (c >> 8);
+				buffer[length++] = (byte) c;
+				if (length == buffer.length) {
+					digest.update(buffer, 0, length);
+					length = 0;
+				}
+			}
+			digest.update(buffer, 0, length);
+			return toHex(digest.digest());
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Short, stable identifier derived from a seed and a range of characters, used for ids missing from the spec.
+	 */
+	public static String shortId(String prefix, String seed, CharSequence content, int start, int end) {
+		long h = fnv1a(FNV_OFFSET, seed, 0, seed.length());
+		h = fnv1a(h, content, start, end);
+		return prefix + String.format("%012x", h & 0xFFFFFFFFFFFFL);
+	}
+
+	private static long fnv1a(long h, CharSequence chars, int start, int end) {
+		for (int i = start; i < end; i++) {
+			h ^= chars.charAt(i);
+			h *= FNV_PRIME;
+		}
+		return h;
+	}
+
+	static String toHex(byte[] bytes) {
+		char[] chars = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+			chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+		}
+		return new String(chars);
+	}
+}
@@ -0,0 +1,30 @@
+package ws.regga.codegen.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * Shared Jackson readers and writers.
+ * ObjectReader and ObjectWriter instances are immutable and thread-safe, so they are built once
+ * instead of instantiating a new ObjectMapper for every parsed or prettified body.
+ */
+public final class ReggaJson {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	public static final ObjectReader TREE_READER = MAPPER.readerFor(JsonNode.class);
+	public static final ObjectWriter WRITER = MAPPER.writer();
+	public static final ObjectWriter PRETTY_WRITER = MAPPER.writerWithDefaultPrettyPrinter();
+
+	private ReggaJson() {
+	}
+
+	/**
+	 * Streamed, see {@link ReggaPrettyPrinter#prettifyJson(String, java.io.Writer)}.
+	 */
+	public static String prettify(String uglyData) throws Exception {
+		return ReggaPrettyPrinter.prettify(uglyData, null);
+	}
+}
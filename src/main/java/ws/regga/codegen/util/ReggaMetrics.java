@@ -0,0 +1,181 @@
+package ws.regga.codegen.util;
+
+import java.io.File;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.samskivert.mustache.Mustache;
+import com.samskivert.mustache.Template;
+
+/**
+ * Time spent in each generation phase and counters of the work done, safe to update from the parsing threads.
+ *
+ * Phase times are inclusive: the time of a lambda is also part of the render phase it runs in.
+ */
+public class ReggaMetrics {
+
+	private static class Phase {
+		final AtomicLong calls = new AtomicLong();
+		final AtomicLong nanos = new AtomicLong();
+	}
+
+	// phases and counters keep the order in which they are first seen
+	private final Map<String, Phase> phases = new LinkedHashMap<String, Phase>();
+	private final Map<String, AtomicLong> counters = new LinkedHashMap<String, AtomicLong>();
+
+	public long start() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Adds the time elapsed since start to the phase.
+	 */
+	public void stop(String phase, long start) {
+		long elapsed = System.nanoTime() - start;
+		Phase p = phase(phase);
+		p.calls.incrementAndGet();
+		p.nanos.addAndGet(elapsed);
+	}
+
+	public void count(String counter) {
+		add(counter, 1);
+	}
+
+	public void add(String counter, long value) {
+		AtomicLong c;
+		synchronized (counters) {
+			c = counters.get(counter);
+			if (c == null) {
+				c = new AtomicLong();
+				counters.put(counter, c);
+			}
+		}
+		c.addAndGet(value);
+	}
+
+	public long get(String counter) {
+		synchronized (counters) {
+			AtomicLong c = counters.get(counter);
+			return c != null ? c.get() : 0;
+		}
+	}
+
+	private Phase phase(String phase) {
+		synchronized (phases) {
+			Phase p = phases.get(phase);
+			if (p == null) {
+				p = new Phase();
+				phases.put(phase, p);
+			}
+			return p;
+		}
+	}
+
+	/**
+	 * Lambda timed as the "lambda.name" phase, the characters it writes are counted as "lambda.name.chars".
+	 */
+	public Mustache.Lambda timed(final String name, final Mustache.Lambda lambda) {
+		return new Mustache.Lambda() {
+			@Override
+			public void execute(Template.Fragment frag, Writer out) throws IOException {
+				long start = start();
+				CountingWriter counting = new CountingWriter(out);
+				try {
+					lambda.execute(frag, counting);
+				}
+				finally {
+					stop("lambda." + name, start);
+					add("lambda." + name + ".chars", counting.count);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Phases (calls and milliseconds) and counters, as written to the JSON report.
+	 */
+	public Map<String, Object> toReport() {
+		Map<String, Object> report = new LinkedHashMap<String, Object>();
+		Map<String, Object> phaseReport = new LinkedHashMap<String, Object>();
+		synchronized (phases) {
+			for (Map.Entry<String, Phase> phase : phases.entrySet()) {
+				Map<String, Object> entry = new LinkedHashMap<String, Object>();
+				entry.put("calls", phase.getValue().calls.get());
+				entry.put("ms", millis(phase.getValue().nanos.get()));
+				phaseReport.put(phase.getKey(), entry);
+			}
+		}
+		Map<String, Object> counterReport = new LinkedHashMap<String, Object>();
+		synchronized (counters) {
+			for (Map.Entry<String, AtomicLong> counter : counters.entrySet()) {
+				counterReport.put(counter.getKey(), counter.getValue().get());
+			}
+		}
+		report.put("phases", phaseReport);
+		report.put("counters", counterReport);
+		return report;
+	}
+
+	public void writeReport(File file, Map<String, Object> report) throws IOException {
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs()) throw new IOException("Could not create " + parent);
+		ReggaJson.PRETTY_WRITER.writeValue(file, report);
+	}
+
+	/**
+	 * One line summary: time of each phase, then counters.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder summary = new StringBuilder();
+		synchronized (phases) {
+			for (Map.Entry<String, Phase> phase : phases.entrySet()) {
+				if (summary.length() > 0) summary.append(", ");
+				summary.append(phase.getKey()).append(' ').append(Math.round(millis(phase.getValue().nanos.get()))).append(" ms");
+			}
+		}
+		synchronized (counters) {
+			for (Map.Entry<String, AtomicLong> counter : counters.entrySet()) {
+				if (summary.length() > 0) summary.append(", ");
+				summary.append(counter.getKey()).append(' ').append(counter.getValue().get());
+			}
+		}
+		return summary.toString();
+	}
+
+	private static double millis(long nanos) {
+		return Math.round(nanos / 1000.0) / 1000.0;
+	}
+
+	private static class CountingWriter extends FilterWriter {
+		long count;
+
+		CountingWriter(Writer out) {
+			super(out);
+		}
+		@Override
+		public void write(int c) throws IOException {
+			out.write(c);
+			count++;
+		}
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			out.write(cbuf, off, len);
+			count += len;
+		}
+		@Override
+		public void write(String str, int off, int len) throws IOException {
+			out.write(str, off, len);
+			count += len;
+		}
+		@Override
+		public void close() throws IOException {
+			// the underlying template writer is not ours to close
+			flush();
+		}
+	}
+}
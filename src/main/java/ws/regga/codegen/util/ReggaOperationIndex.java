@@ -0,0 +1,59 @@
+package ws.regga.codegen.util;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.swagger.models.HttpMethod;
+import io.swagger.models.Operation;
+import io.swagger.models.Path;
+import io.swagger.models.Response;
+import io.swagger.models.Swagger;
+
+/**
+ * Operations of the spec indexed by path and method, built once.
+ *
+ * Path.getOperationMap() builds a new map on every call, lookups through the index do not allocate.
+ */
+public final class ReggaOperationIndex {
+
+	private final Map<String, Map<HttpMethod, Operation>> operations;
+
+	public ReggaOperationIndex(Swagger swagger) {
+		Map<String, Map<HttpMethod, Operation>> operations = new HashMap<String, Map<HttpMethod, Operation>>();
+		if (swagger.getPaths() != null) {
+			for (Map.Entry<String, Path> path : swagger.getPaths().entrySet()) {
+				Map<HttpMethod, Operation> methods = new EnumMap<HttpMethod, Operation>(HttpMethod.class);
+				methods.putAll(path.getValue().getOperationMap());
+				operations.put(path.getKey(), Collections.unmodifiableMap(methods));
+			}
+		}
+		this.operations = Collections.unmodifiableMap(operations);
+	}
+
+	public Operation getOperation(String path, HttpMethod method) {
+		Map<HttpMethod, Operation> methods = operations.get(path);
+		return methods != null ? methods.get(method) : null;
+	}
+
+	/**
+	 * @param method http method, case insensitive
+	 */
+	public Operation getOperation(String path, String method) {
+		return getOperation(path, HttpMethod.valueOf(method.toUpperCase()));
+	}
+
+	public Response getResponse(String path, String method, String code) {
+		Operation operation = getOperation(path, method);
+		return operation != null && operation.getResponses() != null ? operation.getResponses().get(code) : null;
+	}
+
+	public int size() {
+		int size = 0;
+		for (Map<HttpMethod, Operation> methods : operations.values()) {
+			size += methods.size();
+		}
+		return size;
+	}
+}
@@ -0,0 +1,125 @@
+package ws.regga.codegen.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+
+/**
+ * Sections of a document rendered on a worker pool while the rest of the document is rendered.
+ *
+ * The template writes a placeholder in place of each deferred section, the placeholders of the written
+ * file are then replaced by the rendered sections: the sections keep their place in the document and
+ * the result is the same as a sequential rendering.
+ */
+public class ReggaParallelSections {
+
+	private final ForkJoinPool pool;
+	// NUL characters do not appear in rendered markdown, the nonce keeps runs apart
+	private final String prefix = "\u0000regga-section-" + Long.toHexString(System.nanoTime()) + "-";
+	private final List<Future<String>> sections = new ArrayList<Future<String>>();
+
+	public ReggaParallelSections(int threads) {
+		this.pool = new ForkJoinPool(threads);
+	}
+
+	/**
+	 * Submits the rendering of a section.
+	 * @return placeholder to write in place of the section
+	 */
+	public String defer(Callable<String> section) {
+		synchronized (sections) {
+			sections.add(pool.submit(section));
+			return prefix + (sections.size() - 1) + "\u0000";
+		}
+	}
+
+	/**
+	 * True on the threads rendering the sections, nested sections are rendered in place there.
+	 */
+	public boolean isRenderingThread() {
+		return ForkJoinTask.getPool() == pool;
+	}
+
+	public int size() {
+		synchronized (sections) {
+			return sections.size();
+		}
+	}
+
+	/**
+	 * Replaces the placeholders of the file by their sections, the file is left as is if it has none.
+	 */
+	public void resolve(File file) throws IOException {
+		if (size() == 0 || !file.isFile()) return;
+		String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+		if (content.indexOf(prefix) < 0) return;
+		File tmp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+		try {
+			Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8));
+			try {
+				resolve(content, out);
+			}
+			finally {
+				out.close();
+			}
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally {
+			tmp.delete();
+		}
+	}
+
+	/**
+	 * Writes the content with its placeholders replaced by their sections, waiting for them as needed.
+	 */
+	public void resolve(String content, Writer out) throws IOException {
+		int start = 0;
+		int placeholder;
+		while ((placeholder = content.indexOf(prefix, start)) >= 0) {
+			int end = content.indexOf('\u0000', placeholder + prefix.length());
+			out.write(content, start, placeholder - start);
+			out.write(take(Integer.parseInt(content.substring(placeholder + prefix.length(), end))));
+			start = end + 1;
+		}
+		out.write(content, start, content.length() - start);
+	}
+
+	// a section is written once, it is released afterwards
+	private String take(int index) throws IOException {
+		Future<String> section;
+		synchronized (sections) {
+			section = sections.get(index);
+			sections.set(index, null);
+		}
+		if (section == null) throw new IllegalStateException("Section " + index + " is written twice");
+		try {
+			return section.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while rendering the sections", e);
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+			throw new IOException("Could not render a section", e.getCause());
+		}
+	}
+
+	public void shutdown() {
+		pool.shutdownNow();
+	}
+}
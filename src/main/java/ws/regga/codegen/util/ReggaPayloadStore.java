@@ -0,0 +1,197 @@
+package ws.regga.codegen.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Example payloads too large to be inlined in the document, written once to content-addressed files
+ * of the payloads directory and replaced by a truncated preview linking to them.
+ *
+ * A payload shared by several sniplets is written once. Files are named after the hash of their content,
+ * so that files written by a previous run are still valid for the sections the incremental mode does not render again.
+ * Payloads can be stored from several rendering threads.
+ *
+ * The payloads of a section are recorded while it is rendered, and replayed when the section is reused from the
+ * section cache, so that the counters and the files kept by {@link #prune()} are the same as for a full render.
+ */
+public class ReggaPayloadStore {
+
+	public static final String DIR = "payloads";
+
+	private final File dir;
+	private final int threshold;
+	private final ReggaMetrics metrics;
+	private final ConcurrentMap<String, String> paths = new ConcurrentHashMap<String, String>();
+	// records of the sections being rendered by the current thread, innermost last
+	private final ThreadLocal<List<List<String>>> sections = new ThreadLocal<List<List<String>>>() {
+		@Override
+		protected List<List<String>> initialValue() {
+			return new ArrayList<List<String>>();
+		}
+	};
+
+	/**
+	 * @param threshold size in characters above which payloads are externalized
+	 */
+	public ReggaPayloadStore(File outputDir, int threshold, ReggaMetrics metrics) {
+		this.dir = new File(outputDir, DIR);
+		this.threshold = threshold;
+		this.metrics = metrics;
+	}
+
+	public boolean isOversized(String payload) {
+		return payload != null && payload.length() > threshold;
+	}
+
+	/**
+	 * Writes the payload unless a payload with the same content was already written.
+	 * @return path of the payload file, relative to the output directory
+	 */
+	public String store(String payload, String contentType) throws IOException {
+		String hash = ReggaHashes.sha256Hex(payload).substring(0, 20);
+		String path = paths.get(hash);
+		if (path == null) path = write(hash, payload, contentType);
+		record("file " + path);
+		return path;
+	}
+
+	private String write(String hash, String payload, String contentType) throws IOException {
+		synchronized (this) {
+			String path = paths.get(hash);
+			if (path != null) return path;
+			path = DIR + "/" + hash + extension(contentType);
+			File file = new File(dir.getParentFile(), path);
+			if (!file.isFile()) {
+				if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Could not create " + dir);
+				File tmp = File.createTempFile(hash, ".tmp", dir);
+				try {
+					Files.write(tmp.toPath(), payload.getBytes(StandardCharsets.UTF_8));
+					Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				}
+				finally {
+					tmp.delete();
+				}
+				metrics.add("bytesWritten", file.length());
+			}
+			metrics.count("payloadFiles");
+			paths.put(hash, path);
+			return path;
+		}
+	}
+
+	/**
+	 * Leading lines of the payload, at most threshold characters.
+	 */
+	public String preview(String payload) {
+		if (!isOversized(payload)) return payload;
+		int end = payload.lastIndexOf('\n', threshold);
+		return payload.substring(0, end > 0 ? end : threshold);
+	}
+
+	/**
+	 * Accounts for an externalized occurrence of a payload, replaced by the given text in the document.
+	 */
+	public void externalized(String payload, String replacement) {
+		long saved = utf8Length(payload) - utf8Length(replacement);
+		metrics.count("payloadsExternalized");
+		metrics.add("payloadBytesSaved", saved);
+		record("saved " + saved);
+	}
+
+	/**
+	 * Starts recording the payloads of a section rendered by the current thread.
+	 */
+	public void beginSection() {
+		sections.get().add(new ArrayList<String>());
+	}
+
+	/**
+	 * @return the payloads of the section, also part of the enclosing section if any
+	 */
+	public List<String> endSection() {
+		List<List<String>> stack = sections.get();
+		List<String> records = stack.remove(stack.size() - 1);
+		if (!stack.isEmpty()) stack.get(stack.size() - 1).addAll(records);
+		return records;
+	}
+
+	/**
+	 * Accounts for the payloads of a section reused from the cache, as if it was rendered again.
+	 * @return false, with nothing accounted for, when a payload file of the section no longer exists
+	 */
+	public boolean replay(List<String> records) {
+		for (String record : records) {
+			if (record.startsWith("file ") && !new File(dir.getParentFile(), record.substring("file ".length())).isFile()) return false;
+		}
+		for (String record : records) {
+			if (record.startsWith("file ")) {
+				String path = record.substring("file ".length());
+				String name = path.substring(path.lastIndexOf('/') + 1);
+				String hash = name.substring(0, name.indexOf('.'));
+				synchronized (this) {
+					if (paths.putIfAbsent(hash, path) == null) metrics.count("payloadFiles");
+				}
+			}
+			else if (record.startsWith("saved ")) {
+				metrics.count("payloadsExternalized");
+				metrics.add("payloadBytesSaved", Long.parseLong(record.substring("saved ".length())));
+			}
+			record(record);
+		}
+		return true;
+	}
+
+	private void record(String record) {
+		List<List<String>> stack = sections.get();
+		if (!stack.isEmpty()) stack.get(stack.size() - 1).add(record);
+	}
+
+	/**
+	 * Removes the payload files not used by the current run.
+	 */
+	public void prune() {
+		File[] files = dir.listFiles();
+		if (files == null) return;
+		Set<String> used = new HashSet<String>();
+		for (String path : paths.values()) {
+			used.add(path.substring(path.lastIndexOf('/') + 1));
+		}
+		for (File file : files) {
+			String name = file.getName();
+			if (name.matches("[0-9a-f]{20}\\.(json|xml|txt)") && !used.contains(name)) {
+				file.delete();
+			}
+		}
+	}
+
+	private static String extension(String contentType) {
+		String type = contentType != null ? contentType.toLowerCase() : "";
+		if (type.contains("json")) return ".json";
+		if (type.contains("xml")) return ".xml";
+		return ".txt";
+	}
+
+	private static long utf8Length(CharSequence text) {
+		long length = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c < 0x80) length++;
+			else if (c < 0x800) length += 2;
+			else if (Character.isHighSurrogate(c)) {
+				length += 4;
+				i++;
+			}
+			else length += 3;
+		}
+		return length;
+	}
+}
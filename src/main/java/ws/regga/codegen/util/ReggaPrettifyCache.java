@@ -0,0 +1,110 @@
+package ws.regga.codegen.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache of prettified sniplet bodies, keyed by a SHA-256 of the raw body content.
+ * The same request/response body is prettified once per example language and once per operation sharing it,
+ * the cache makes sure each distinct body is parsed and printed only once per run.
+ *
+ * Sniplet data slices are hashed in place, a body is only decoded when it is prettified. Only the prettified
+ * bodies are kept, and the cache is bounded by their total number of characters rather than by their number.
+ */
+public class ReggaPrettifyCache {
+
+	// about 64 MB of characters
+	public static final long DEFAULT_MAX_CHARS = 32L * 1024 * 1024;
+
+	private final long maxChars;
+	private final Map<String, String> entries = new LinkedHashMap<String, String>(16, 0.75f, true);
+	private long chars;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	public ReggaPrettifyCache() {
+		this(DEFAULT_MAX_CHARS);
+	}
+
+	/**
+	 * @param maxChars total length of the prettified bodies kept, larger bodies are not cached
+	 */
+	public ReggaPrettifyCache(long maxChars) {
+		this.maxChars = maxChars;
+	}
+
+	public String prettify(Object uglyData) throws Exception {
+		return prettify(uglyData, null);
+	}
+
+	/**
+	 * Prettifies an XML body if the content type is an XML one, a JSON body otherwise.
+	 * Bodies are keyed by their content only: a body is either valid XML or valid JSON, failures are not cached.
+	 */
+	public String prettify(Object uglyData, String contentType) throws Exception {
+		return prettify(uglyData, contentType, null);
+	}
+
+	/**
+	 * Prettifies a body, counting the call and the cache hit in the metrics of the run: the cache may be shared
+	 * by successive or concurrent runs, its own counters are the ones of its whole lifetime.
+	 */
+	public String prettify(Object uglyData, String contentType, ReggaMetrics metrics) throws Exception {
+		if (metrics != null) metrics.count("prettifyCalls");
+		// encoded slices and plain strings of the same characters are different bodies
+		String key = uglyData instanceof ReggaSnipletData ? "d" + ((ReggaSnipletData) uglyData).sha256Hex() : "s" + ReggaHashes.sha256Hex(uglyData.toString());
+		String pretty;
+		synchronized (entries) {
+			pretty = entries.get(key);
+		}
+		if (pretty != null) {
+			hits.incrementAndGet();
+			if (metrics != null) metrics.count("prettifyCacheHits");
+			return pretty;
+		}
+		misses.incrementAndGet();
+		pretty = ReggaPrettyPrinter.prettify(uglyData.toString(), contentType);
+		if (pretty.length() > maxChars) return pretty;
+		synchronized (entries) {
+			String previous = entries.put(key, pretty);
+			if (previous != null) chars -= previous.length();
+			chars += pretty.length();
+			Iterator<String> eldest = entries.values().iterator();
+			while (chars > maxChars && eldest.hasNext()) {
+				chars -= eldest.next().length();
+				eldest.remove();
+			}
+		}
+		return pretty;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * Total length of the prettified bodies kept.
+	 */
+	public long chars() {
+		synchronized (entries) {
+			return chars;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "prettify cache: " + size() + " entries, " + chars() + " chars, " + getHits() + " hits, " + getMisses() + " misses";
+	}
+}
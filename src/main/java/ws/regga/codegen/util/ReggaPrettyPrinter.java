@@ -0,0 +1,249 @@
+package ws.regga.codegen.util;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
+
+/**
+ * Streaming pretty printer of the sniplet bodies: tokens are copied from the parser to the writer
+ * with indentation, the document is never built in memory.
+ *
+ * JSON numbers are copied as written (no double conversion) and keys keep their order, duplicates included.
+ * XML is copied through StAX: namespaces, attributes, comments and processing instructions are kept, CDATA sections
+ * are written as escaped text, whitespace between elements is replaced by the indentation and elements holding text
+ * are not indented inside. DTDs are copied but not processed.
+ */
+public final class ReggaPrettyPrinter {
+
+	private static final JsonFactory JSON_FACTORY = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+	private static final XMLOutputFactory XML_OUTPUT = XMLOutputFactory.newInstance();
+	private static final String INDENT = "  ";
+
+	// the JDK factory may reuse the readers it created, one factory per thread
+	private static final ThreadLocal<XMLInputFactory> XML_INPUT = new ThreadLocal<XMLInputFactory>() {
+		@Override
+		protected XMLInputFactory initialValue() {
+			XMLInputFactory factory = XMLInputFactory.newInstance();
+			factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+			factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+			factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+			return factory;
+		}
+	};
+
+	private ReggaPrettyPrinter() {
+	}
+
+	public static boolean isXml(String contentType) {
+		return contentType != null && contentType.toLowerCase().contains("xml");
+	}
+
+	/**
+	 * Prettifies an XML body if the content type is an XML one, a JSON body otherwise.
+	 */
+	public static String prettify(String data, String contentType) throws IOException {
+		StringWriter out = new StringWriter(data.length() + data.length() / 2);
+		if (isXml(contentType)) prettifyXml(data, out);
+		else prettifyJson(data, out);
+		return out.toString();
+	}
+
+	/**
+	 * Writes the first JSON value of the data, indented.
+	 */
+	public static void prettifyJson(String data, Writer out) throws IOException {
+		JsonParser parser = JSON_FACTORY.createParser(data);
+		try {
+			JsonToken token = parser.nextToken();
+			if (token == null) throw new IOException("No JSON content to prettify");
+			JsonGenerator generator = JSON_FACTORY.createGenerator(out);
+			generator.setPrettyPrinter(new DefaultPrettyPrinter());
+			int depth = 0;
+			do {
+				if (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT) generator.writeNumber(parser.getText());
+				else generator.copyCurrentEvent(parser);
+				if (token.isStructStart()) depth++;
+				else if (token.isStructEnd()) depth--;
+			}
+			while (depth > 0 && (token = parser.nextToken()) != null);
+			generator.close();
+		}
+		finally {
+			parser.close();
+		}
+	}
+
+	public static void prettifyXml(String data, Writer out) throws IOException {
+		try {
+			XMLStreamReader reader = XML_INPUT.get().createXMLStreamReader(new StringReader(data));
+			try {
+				XMLStreamWriter writer = XML_OUTPUT.createXMLStreamWriter(out);
+				new XmlCopy(reader, writer).run();
+				writer.close();
+			}
+			finally {
+				reader.close();
+			}
+		}
+		catch (XMLStreamException e) {
+			throw new IOException("Could not prettify XML: " + e.getMessage(), e);
+		}
+	}
+
+	// copies the events of the reader, an element is written once its next event is known so that empty ones are closed in place
+	private static class XmlCopy {
+		private final XMLStreamReader reader;
+		private final XMLStreamWriter writer;
+		// per open element: it holds child elements (its end tag is indented) or text (its content is kept as is)
+		private final List<Boolean> children = new ArrayList<Boolean>();
+		private final List<Boolean> text = new ArrayList<Boolean>();
+		private boolean started;
+		// start element not written yet
+		private String prefix, localName, namespace;
+		private final List<String[]> namespaces = new ArrayList<String[]>();
+		private final List<String[]> attributes = new ArrayList<String[]>();
+		private boolean pending;
+
+		XmlCopy(XMLStreamReader reader, XMLStreamWriter writer) {
+			this.reader = reader;
+			this.writer = writer;
+		}
+
+		void run() throws XMLStreamException {
+			int event = reader.getEventType();
+			while (true) {
+				switch (event) {
+				case XMLStreamConstants.START_DOCUMENT:
+					if (reader.getVersion() != null) {
+						if (reader.getCharacterEncodingScheme() != null) writer.writeStartDocument(reader.getCharacterEncodingScheme(), reader.getVersion());
+						else writer.writeStartDocument(reader.getVersion());
+						started = true;
+					}
+					break;
+				case XMLStreamConstants.START_ELEMENT:
+					flush(false);
+					indentChild();
+					prefix = reader.getPrefix();
+					localName = reader.getLocalName();
+					namespace = reader.getNamespaceURI();
+					namespaces.clear();
+					for (int i = 0; i < reader.getNamespaceCount(); i++) {
+						namespaces.add(new String[] { reader.getNamespacePrefix(i), reader.getNamespaceURI(i) });
+					}
+					attributes.clear();
+					for (int i = 0; i < reader.getAttributeCount(); i++) {
+						attributes.add(new String[] { reader.getAttributePrefix(i), reader.getAttributeNamespace(i), reader.getAttributeLocalName(i), reader.getAttributeValue(i) });
+					}
+					pending = true;
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					if (pending) {
+						flush(true);
+						break;
+					}
+					int depth = children.size() - 1;
+					if (children.get(depth) && !text.get(depth)) indent(depth);
+					writer.writeEndElement();
+					children.remove(depth);
+					text.remove(depth);
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.SPACE:
+				case XMLStreamConstants.CDATA:
+					// whitespace is only kept within text
+					boolean inText = !pending && !text.isEmpty() && text.get(text.size() - 1);
+					if (event != XMLStreamConstants.CDATA && reader.isWhiteSpace() && !inText) break;
+					flush(false);
+					if (text.isEmpty()) break;
+					text.set(text.size() - 1, true);
+					if (event == XMLStreamConstants.CDATA) writer.writeCData(reader.getText());
+					else writer.writeCharacters(reader.getText());
+					break;
+				case XMLStreamConstants.COMMENT:
+					flush(false);
+					indentChild();
+					writer.writeComment(reader.getText());
+					break;
+				case XMLStreamConstants.PROCESSING_INSTRUCTION:
+					flush(false);
+					indentChild();
+					if (reader.getPIData() != null && !reader.getPIData().isEmpty()) writer.writeProcessingInstruction(reader.getPITarget(), reader.getPIData());
+					else writer.writeProcessingInstruction(reader.getPITarget());
+					break;
+				case XMLStreamConstants.DTD:
+					indentChild();
+					writer.writeDTD(reader.getText());
+					break;
+				case XMLStreamConstants.ENTITY_REFERENCE:
+					flush(false);
+					if (!text.isEmpty()) text.set(text.size() - 1, true);
+					writer.writeEntityRef(reader.getLocalName());
+					break;
+				case XMLStreamConstants.END_DOCUMENT:
+					writer.writeEndDocument();
+					writer.flush();
+					return;
+				default:
+					break;
+				}
+				event = reader.next();
+			}
+		}
+
+		// a new line and the indentation of the depth, unless the parent element holds text
+		private void indentChild() throws XMLStreamException {
+			int depth = children.size();
+			if (depth > 0) {
+				if (text.get(depth - 1)) return;
+				children.set(depth - 1, true);
+			}
+			if (started) indent(depth);
+			started = true;
+		}
+
+		private void indent(int depth) throws XMLStreamException {
+			StringBuilder indent = new StringBuilder(1 + depth * INDENT.length()).append('\n');
+			for (int i = 0; i < depth; i++) {
+				indent.append(INDENT);
+			}
+			writer.writeCharacters(indent.toString());
+		}
+
+		private void flush(boolean empty) throws XMLStreamException {
+			if (!pending) return;
+			pending = false;
+			String elementPrefix = prefix != null ? prefix : "";
+			String elementNamespace = namespace != null ? namespace : "";
+			if (empty) writer.writeEmptyElement(elementPrefix, localName, elementNamespace);
+			else writer.writeStartElement(elementPrefix, localName, elementNamespace);
+			for (String[] ns : namespaces) {
+				if (ns[0] == null || ns[0].isEmpty()) writer.writeDefaultNamespace(ns[1] != null ? ns[1] : "");
+				else writer.writeNamespace(ns[0], ns[1]);
+			}
+			for (String[] attribute : attributes) {
+				if (attribute[1] == null || attribute[1].isEmpty()) writer.writeAttribute(attribute[2], attribute[3]);
+				else writer.writeAttribute(attribute[0] != null ? attribute[0] : "", attribute[1], attribute[2], attribute[3]);
+			}
+			if (!empty) {
+				children.add(false);
+				text.add(false);
+			}
+		}
+	}
+}
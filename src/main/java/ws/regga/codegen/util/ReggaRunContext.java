@@ -0,0 +1,141 @@
+package ws.regga.codegen.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import io.swagger.models.Swagger;
+import ws.regga.codegen.util.ReggaCodegen.ReggaStory;
+import ws.regga.codegen.util.ReggaSnipletGraph.Exchange;
+
+/**
+ * State of one generation run, built once all the operations and models are processed, before rendering starts.
+ *
+ * Nothing is added or computed lazily afterwards but by the thread-safe caches of the run: the lambdas
+ * only read from the context, so that sections can be rendered from any thread and runs do not see each other's state.
+ * The raw spec tree and the swagger model must not be modified.
+ */
+public final class ReggaRunContext {
+
+	private final Swagger swagger;
+	private final ReggaOperationIndex operationIndex;
+	private final JsonNode swaggerJsonNode;
+	private final ReggaSnipletRegistry sniplets;
+	private final Map<String, ReggaStory> stories;
+	private final ReggaSnipletGraph snipletGraph;
+	private final String globalFingerprint;
+	private final ReggaSectionCache sectionCache;
+	private final ReggaPrettifyCache prettifyCache;
+	private final ReggaMetrics metrics;
+	private final ReggaParallelSections parallelSections;
+	private final ReggaPayloadStore payloadStore;
+	private final ReggaExampleRenderers exampleRenderers;
+	private final ConcurrentMap<Exchange, String> sharedSteps = new ConcurrentHashMap<Exchange, String>();
+
+	ReggaRunContext(Swagger swagger, ReggaOperationIndex operationIndex, JsonNode swaggerJsonNode, ReggaSnipletRegistry sniplets,
+			Map<String, ReggaStory> stories, ReggaSnipletGraph snipletGraph, String globalFingerprint, ReggaSectionCache sectionCache, ReggaPrettifyCache prettifyCache, ReggaMetrics metrics,
+			ReggaParallelSections parallelSections, ReggaPayloadStore payloadStore, ReggaExampleRenderers exampleRenderers) {
+		if (!sniplets.isFrozen()) throw new IllegalArgumentException("Regga Sniplets must be frozen");
+		this.swagger = swagger;
+		this.operationIndex = operationIndex;
+		this.swaggerJsonNode = swaggerJsonNode;
+		this.sniplets = sniplets;
+		this.stories = stories;
+		this.snipletGraph = snipletGraph;
+		this.globalFingerprint = globalFingerprint;
+		this.sectionCache = sectionCache;
+		this.prettifyCache = prettifyCache;
+		this.metrics = metrics;
+		this.parallelSections = parallelSections;
+		this.payloadStore = payloadStore;
+		this.exampleRenderers = exampleRenderers;
+	}
+
+	public Swagger getSwagger() {
+		return swagger;
+	}
+
+	public ReggaOperationIndex getOperationIndex() {
+		return operationIndex;
+	}
+
+	/**
+	 * Raw spec, null if it could not be parsed.
+	 */
+	public JsonNode getSwaggerJsonNode() {
+		return swaggerJsonNode;
+	}
+
+	/**
+	 * Frozen registry, with the request -> response links resolved.
+	 */
+	public ReggaSnipletRegistry getSniplets() {
+		return sniplets;
+	}
+
+	/**
+	 * Unmodifiable stories by id.
+	 */
+	public Map<String, ReggaStory> getStories() {
+		return stories;
+	}
+
+	/**
+	 * Sniplets resolved into exchanges, and stories into steps.
+	 */
+	public ReggaSnipletGraph getSnipletGraph() {
+		return snipletGraph;
+	}
+
+	/**
+	 * Fingerprint of what every section depends on, null unless the incremental mode is enabled.
+	 */
+	public String getGlobalFingerprint() {
+		return globalFingerprint;
+	}
+
+	/**
+	 * Null unless the incremental mode is enabled.
+	 */
+	public ReggaSectionCache getSectionCache() {
+		return sectionCache;
+	}
+
+	public ReggaPrettifyCache getPrettifyCache() {
+		return prettifyCache;
+	}
+
+	public ReggaMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Pool rendering the sections of the document, null unless parallel rendering is enabled.
+	 */
+	public ReggaParallelSections getParallelSections() {
+		return parallelSections;
+	}
+
+	/**
+	 * Files of the externalized example payloads, null unless a payload size limit is set.
+	 */
+	public ReggaPayloadStore getPayloadStore() {
+		return payloadStore;
+	}
+
+	/**
+	 * Renderers of the exampleLanguages, with the examples already rendered.
+	 */
+	public ReggaExampleRenderers getExampleRenderers() {
+		return exampleRenderers;
+	}
+
+	/**
+	 * Rendered exchanges of the story steps shared with other steps, filled by the rendering threads.
+	 */
+	public ConcurrentMap<Exchange, String> getSharedSteps() {
+		return sharedSteps;
+	}
+}
@@ -0,0 +1,123 @@
+package ws.regga.codegen.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.samskivert.mustache.Template;
+
+/**
+ * Content-addressed cache of rendered template sections, stored in the output directory.
+ *
+ * A section is identified by the fingerprint of everything it is rendered from, so it is rendered again only when
+ * one of its inputs changed and copied from the cache otherwise. The externalized payloads of a section are kept
+ * next to it and replayed on the payload store when it is reused.
+ */
+public class ReggaSectionCache {
+
+	private final File dir;
+	private final ReggaPayloadStore payloadStore;
+	private final Set<String> used = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private final AtomicInteger hits = new AtomicInteger();
+	private final AtomicInteger misses = new AtomicInteger();
+
+	public ReggaSectionCache(File dir) {
+		this(dir, null);
+	}
+
+	/**
+	 * @param payloadStore store of the externalized payloads, null when payloads are inlined
+	 */
+	public ReggaSectionCache(File dir, ReggaPayloadStore payloadStore) {
+		this.dir = dir;
+		this.payloadStore = payloadStore;
+	}
+
+	/**
+	 * Writes the section identified by the fingerprint, rendering the fragment only on cache miss.
+	 */
+	public void render(String fingerprint, Template.Fragment frag, Writer out) throws IOException {
+		used.add(fingerprint);
+		File file = new File(dir, fingerprint + ".md");
+		File payloadsFile = new File(dir, fingerprint + ".payloads");
+		if (file.isFile() && replayPayloads(payloadsFile)) {
+			hits.incrementAndGet();
+			out.write(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+			return;
+		}
+		misses.incrementAndGet();
+		StringWriter section = new StringWriter();
+		List<String> payloads = null;
+		if (payloadStore != null) payloadStore.beginSection();
+		try {
+			frag.execute(section);
+		}
+		finally {
+			if (payloadStore != null) payloads = payloadStore.endSection();
+		}
+		String rendered = section.toString();
+		if (payloads != null && !payloads.isEmpty()) store(payloadsFile, joinLines(payloads));
+		else payloadsFile.delete();
+		store(file, rendered);
+		out.write(rendered);
+	}
+
+	// a section whose payload files are gone is rendered again
+	private boolean replayPayloads(File payloadsFile) throws IOException {
+		if (payloadStore == null || !payloadsFile.isFile()) return true;
+		return payloadStore.replay(Files.readAllLines(payloadsFile.toPath(), StandardCharsets.UTF_8));
+	}
+
+	private static String joinLines(List<String> lines) {
+		StringBuilder text = new StringBuilder();
+		for (String line : lines) {
+			text.append(line).append('\n');
+		}
+		return text.toString();
+	}
+
+	private void store(File file, String rendered) throws IOException {
+		// sections are stored from several rendering threads, the directory may be created by another one
+		if (!dir.mkdirs() && !dir.isDirectory()) throw new IOException("Could not create " + dir);
+		File tmp = File.createTempFile("section", ".tmp", dir);
+		Files.write(tmp.toPath(), rendered.getBytes(StandardCharsets.UTF_8));
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Removes the sections not used by the current run.
+	 */
+	public void prune() {
+		File[] files = dir.listFiles();
+		if (files == null) return;
+		for (File file : files) {
+			String name = file.getName();
+			int dot = name.lastIndexOf('.');
+			if ((name.endsWith(".md") || name.endsWith(".payloads")) && !used.contains(name.substring(0, dot))) {
+				file.delete();
+			}
+		}
+	}
+
+	public int getHits() {
+		return hits.get();
+	}
+
+	public int getMisses() {
+		return misses.get();
+	}
+
+	@Override
+	public String toString() {
+		return "section cache: " + getHits() + " sections reused, " + getMisses() + " rendered";
+	}
+}
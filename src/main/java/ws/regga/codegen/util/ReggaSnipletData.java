@@ -0,0 +1,75 @@
+package ws.regga.codegen.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+
+/**
+ * Textual sniplet data kept as a slice of the example it was parsed from.
+ * The slice still holds the JSON string literal (quotes and escapes included) and is only decoded when rendered,
+ * so large payloads are not copied while the examples are parsed.
+ */
+public final class ReggaSnipletData {
+
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	private final String source;
+	private final int start;
+	private final int end;
+	private final boolean escaped;
+
+	/**
+	 * @param source example text
+	 * @param start offset of the opening quote of the string literal
+	 * @param end offset following the closing quote of the string literal
+	 */
+	ReggaSnipletData(String source, int start, int end, boolean escaped) {
+		this.source = source;
+		this.start = start;
+		this.end = end;
+		this.escaped = escaped;
+	}
+
+	/**
+	 * Returns the offset following the closing quote of the string literal starting at the given offset.
+	 */
+	static int endOfStringLiteral(String source, int start) {
+		int i = start + 1;
+		while (i < source.length()) {
+			char c = source.charAt(i);
+			if (c == '\\') i += 2;
+			else if (c == '"') return i + 1;
+			else i++;
+		}
+		throw new IllegalArgumentException("Unterminated string literal at offset " + start);
+	}
+
+	static boolean hasEscapes(String source, int start, int end) {
+		int i = source.indexOf('\\', start);
+		return i >= 0 && i < end;
+	}
+
+	/**
+	 * SHA-256 of the encoded literal, computed on the slice without decoding it.
+	 */
+	public String sha256Hex() {
+		return ReggaHashes.sha256Hex(source, start, end);
+	}
+
+	@Override
+	public String toString() {
+		if (!escaped) return source.substring(start + 1, end - 1);
+		try {
+			JsonParser parser = JSON_FACTORY.createParser(source.substring(start, end));
+			try {
+				parser.nextToken();
+				return parser.getText();
+			}
+			finally {
+				parser.close();
+			}
+		}
+		catch (Exception e) {
+			throw new IllegalStateException("Could not decode sniplet data", e);
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package ws.regga.codegen.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dictionary of the values repeated across the sniplets of a spec: content types, paths, methods, urls, ids,
+ * tag lists and header sets are kept once and shared by all the sniplets having them.
+ *
+ * Shared lists and maps are unmodifiable. The dictionary is only used while sniplets are registered,
+ * it is released when the registry is frozen.
+ */
+public class ReggaSnipletDictionary {
+
+	private final Map<String, String> strings = new HashMap<String, String>();
+	private final Map<List<String>, List<String>> tags = new HashMap<List<String>, List<String>>();
+	// keyed by the entries in iteration order, equal header sets iterating differently are kept apart
+	private final Map<List<Map.Entry<String, String>>, Map<String, String>> headers = new HashMap<List<Map.Entry<String, String>>, Map<String, String>>();
+
+	public String intern(String value) {
+		if (value == null) return null;
+		String interned = strings.get(value);
+		if (interned == null) {
+			strings.put(value, value);
+			interned = value;
+		}
+		return interned;
+	}
+
+	public List<String> internTags(List<String> value) {
+		if (value == null) return null;
+		if (value.isEmpty()) return Collections.emptyList();
+		List<String> interned = tags.get(value);
+		if (interned == null) {
+			List<String> copy = new ArrayList<String>(value.size());
+			for (String tag : value) {
+				copy.add(intern(tag));
+			}
+			interned = Collections.unmodifiableList(copy);
+			tags.put(interned, interned);
+		}
+		return interned;
+	}
+
+	/**
+	 * Returns the shared header set equal to the given one, the given map is kept as is when it is the first of its kind.
+	 */
+	public Map<String, String> internHeaders(Map<String, String> value) {
+		if (value == null) return null;
+		if (value.isEmpty()) return Collections.emptyMap();
+		List<Map.Entry<String, String>> key = new ArrayList<Map.Entry<String, String>>(value.entrySet());
+		Map<String, String> interned = headers.get(key);
+		if (interned == null) {
+			interned = Collections.unmodifiableMap(value);
+			headers.put(key, interned);
+		}
+		return interned;
+	}
+
+	public int size() {
+		return strings.size() + tags.size() + headers.size();
+	}
+}
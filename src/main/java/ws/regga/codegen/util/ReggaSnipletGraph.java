@@ -0,0 +1,240 @@
+package ws.regga.codegen.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ws.regga.codegen.util.ReggaCodegen.ReggaSniplet;
+import ws.regga.codegen.util.ReggaCodegen.ReggaStory;
+
+/**
+ * Sniplets of a run resolved into request / response exchanges, and stories resolved into sequences of exchanges.
+ *
+ * Built once from the frozen registry before rendering, in time linear in the number of sniplets and story steps,
+ * and not modified afterwards. Dangling sniplet ids (links and story steps) are reported and left out, as are
+ * the links of sniplets on a cycle of request or response links: an exchange is a request and its response.
+ */
+public final class ReggaSnipletGraph {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ReggaSnipletGraph.class);
+
+	/**
+	 * A request sniplet and its response sniplet, either may be null but not both.
+	 */
+	public static final class Exchange {
+		public final ReggaSniplet request;
+		public final ReggaSniplet response;
+		public final String title;
+		public final String url;
+		// of the request, null for a response without request
+		public final String requestMethod;
+		public final String requestPath;
+		public final String contentType;
+
+		private Exchange(ReggaSniplet request, ReggaSniplet response) {
+			this.request = request;
+			this.response = response;
+			ReggaSniplet sniplet = request != null ? request : response;
+			this.title = sniplet.title != null || response == null ? sniplet.title : response.title;
+			this.url = sniplet.url != null || response == null ? sniplet.url : response.url;
+			this.requestMethod = request != null ? request.requestMethod : null;
+			this.requestPath = request != null ? request.requestPath : null;
+			this.contentType = sniplet.contentType;
+		}
+	}
+
+	/**
+	 * Step of a story, shared when its exchange is the one of other steps as well.
+	 */
+	public static final class Step {
+		public final int number;
+		public final Exchange exchange;
+		public final boolean shared;
+
+		private Step(int number, Exchange exchange, boolean shared) {
+			this.number = number;
+			this.exchange = exchange;
+			this.shared = shared;
+		}
+	}
+
+	public static final class Story {
+		public final String id;
+		public final String title;
+		public final List<String> tags;
+		public final List<Step> steps;
+
+		private Story(String id, String title, List<String> tags, List<Step> steps) {
+			this.id = id;
+			this.title = title;
+			this.tags = tags;
+			this.steps = steps;
+		}
+	}
+
+	private final Map<String, Exchange> exchanges;
+	private final List<Story> stories;
+	private final int danglingIds;
+	private final int cycleSniplets;
+
+	private ReggaSnipletGraph(Map<String, Exchange> exchanges, List<Story> stories, int danglingIds, int cycleSniplets) {
+		this.exchanges = exchanges;
+		this.stories = stories;
+		this.danglingIds = danglingIds;
+		this.cycleSniplets = cycleSniplets;
+	}
+
+	/**
+	 * @param sniplets frozen registry, with its links resolved
+	 * @param stories stories in spec order
+	 */
+	public static ReggaSnipletGraph build(ReggaSnipletRegistry sniplets, Map<String, ReggaStory> stories) {
+		if (!sniplets.isFrozen()) throw new IllegalArgumentException("Regga Sniplets must be frozen");
+		List<ReggaSniplet> nodes = new ArrayList<ReggaSniplet>(sniplets.asMap().values());
+		Map<ReggaSniplet, Integer> indexes = new IdentityHashMap<ReggaSniplet, Integer>(nodes.size());
+		for (int i = 0; i < nodes.size(); i++) {
+			indexes.put(nodes.get(i), i);
+		}
+
+		int danglingIds = 0;
+		int[] responses = new int[nodes.size()];
+		int[] requests = new int[nodes.size()];
+		for (int i = 0; i < nodes.size(); i++) {
+			ReggaSniplet sniplet = nodes.get(i);
+			responses[i] = sniplet.responseSniplet != null ? indexes.get(sniplet.responseSniplet) : -1;
+			requests[i] = sniplet.requestSniplet != null ? indexes.get(sniplet.requestSniplet) : -1;
+			if (sniplet.responseSniplet == null && sniplet.responseSnipletId != null) {
+				LOGGER.warn("Regga Sniplet " + sniplet.id + " links to the unknown response sniplet " + sniplet.responseSnipletId);
+				danglingIds++;
+			}
+			if (sniplet.requestSniplet == null && sniplet.requestSnipletId != null) {
+				LOGGER.warn("Regga Sniplet " + sniplet.id + " links to the unknown request sniplet " + sniplet.requestSnipletId);
+				danglingIds++;
+			}
+		}
+		boolean[] onCycle = new boolean[nodes.size()];
+		int cycleSniplets = markCycles(responses, onCycle) + markCycles(requests, onCycle);
+		for (int i = 0; i < nodes.size(); i++) {
+			if (onCycle[i]) LOGGER.warn("Regga Sniplet " + nodes.get(i).id + " is on a cycle of sniplet links, its links are ignored");
+		}
+
+		// requests first, so that their responses share the exchange
+		Map<String, Exchange> exchanges = new HashMap<String, Exchange>(nodes.size() * 4 / 3 + 1);
+		for (int i = 0; i < nodes.size(); i++) {
+			ReggaSniplet sniplet = nodes.get(i);
+			if (!isRequest(sniplet)) continue;
+			ReggaSniplet response = !onCycle[i] && responses[i] >= 0 && !onCycle[responses[i]] ? nodes.get(responses[i]) : null;
+			exchanges.put(sniplet.id, new Exchange(sniplet, response));
+		}
+		for (int i = 0; i < nodes.size(); i++) {
+			ReggaSniplet sniplet = nodes.get(i);
+			if (isRequest(sniplet)) continue;
+			ReggaSniplet request = !onCycle[i] && requests[i] >= 0 && !onCycle[requests[i]] ? nodes.get(requests[i]) : null;
+			Exchange exchange = request != null ? exchanges.get(request.id) : null;
+			if (exchange == null || exchange.response != sniplet) exchange = new Exchange(request, sniplet);
+			exchanges.put(sniplet.id, exchange);
+		}
+
+		// steps are resolved once, then flagged when their exchange is used by several steps
+		Map<Exchange, Integer> uses = new IdentityHashMap<Exchange, Integer>();
+		List<List<Exchange>> sequences = new ArrayList<List<Exchange>>(stories.size());
+		for (ReggaStory story : stories.values()) {
+			List<Exchange> sequence = new ArrayList<Exchange>(story.snipletSequence != null ? story.snipletSequence.size() : 0);
+			if (story.snipletSequence != null) {
+				for (String snipletId : story.snipletSequence) {
+					Exchange exchange = exchanges.get(snipletId);
+					if (exchange == null) {
+						LOGGER.warn("Regga Story " + story.id + " refers to the unknown sniplet " + snipletId);
+						danglingIds++;
+						continue;
+					}
+					Integer count = uses.get(exchange);
+					uses.put(exchange, count != null ? count + 1 : 1);
+					sequence.add(exchange);
+				}
+			}
+			sequences.add(sequence);
+		}
+		List<Story> resolvedStories = new ArrayList<Story>(stories.size());
+		int s = 0;
+		for (ReggaStory story : stories.values()) {
+			List<Exchange> sequence = sequences.get(s++);
+			List<Step> steps = new ArrayList<Step>(sequence.size());
+			for (Exchange exchange : sequence) {
+				steps.add(new Step(steps.size() + 1, exchange, uses.get(exchange) > 1));
+			}
+			List<String> tags = story.tags != null ? Collections.unmodifiableList(new ArrayList<String>(story.tags)) : Collections.<String>emptyList();
+			resolvedStories.add(new Story(story.id, story.title != null ? story.title : story.id, tags, Collections.unmodifiableList(steps)));
+		}
+
+		return new ReggaSnipletGraph(Collections.unmodifiableMap(exchanges), Collections.unmodifiableList(resolvedStories), danglingIds, cycleSniplets);
+	}
+
+	// sniplets nested as requestSniplet are registered with their operation path and method
+	private static boolean isRequest(ReggaSniplet sniplet) {
+		return sniplet.requestMethod != null;
+	}
+
+	// each node has at most one successor: every walk stops on a node already seen, nodes are visited once
+	private static int markCycles(int[] next, boolean[] onCycle) {
+		byte[] state = new byte[next.length]; // 0 new, 1 on the current walk, 2 done
+		int count = 0;
+		for (int start = 0; start < next.length; start++) {
+			int node = start;
+			while (node >= 0 && state[node] == 0) {
+				state[node] = 1;
+				node = next[node];
+			}
+			if (node >= 0 && state[node] == 1) {
+				int cycleNode = node;
+				do {
+					if (!onCycle[cycleNode]) count++;
+					onCycle[cycleNode] = true;
+					cycleNode = next[cycleNode];
+				}
+				while (cycleNode != node);
+			}
+			node = start;
+			while (node >= 0 && state[node] == 1) {
+				state[node] = 2;
+				node = next[node];
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Exchange of a sniplet, the same for a request and its response, null for an unknown id.
+	 */
+	public Exchange getExchange(String snipletId) {
+		return snipletId != null ? exchanges.get(snipletId) : null;
+	}
+
+	/**
+	 * Stories in spec order, with their steps resolved.
+	 */
+	public List<Story> getStories() {
+		return stories;
+	}
+
+	/**
+	 * Number of links and story steps referring to unknown sniplets.
+	 */
+	public int getDanglingIds() {
+		return danglingIds;
+	}
+
+	/**
+	 * Number of sniplets on a cycle of request or response links.
+	 */
+	public int getCycleSniplets() {
+		return cycleSniplets;
+	}
+}
@@ -0,0 +1,236 @@
+package ws.regga.codegen.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import io.swagger.codegen.CodegenOperation;
+import io.swagger.models.Swagger;
+import ws.regga.codegen.util.ReggaCodegen.ReggaSniplet;
+import ws.regga.codegen.util.ReggaCodegen.ReggaSnipletType;
+
+/**
+ * Streaming parser of the Regga Sniplet arrays found in operation examples.
+ *
+ * Sniplets are built directly from the parser tokens, no JsonNode tree is built for the example.
+ * Textual data is kept as a slice of the example (see {@link ReggaSnipletData}).
+ */
+public class ReggaSnipletParser {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ReggaSnipletParser.class);
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	private final Swagger swagger;
+	private final ReggaSnipletRegistry registry;
+
+	public ReggaSnipletParser(Swagger swagger, ReggaSnipletRegistry registry) {
+		this.swagger = swagger;
+		this.registry = registry;
+	}
+
+	// sniplet being parsed, with its nested sniplets not registered yet
+	private static class ParsedSniplet {
+		ReggaSniplet sniplet = new ReggaSniplet();
+		String type;
+		String uri;
+		ParsedSniplet requestSniplet;
+		ParsedSniplet responseSniplet;
+	}
+
+	/**
+	 * Sniplets parsed from one example, not registered yet.
+	 * Parsing is independent from the registry and can run concurrently, registration must follow operation order.
+	 */
+	public static class ParsedExample {
+		private final CodegenOperation operation;
+		private final String contentType;
+		private final List<ParsedSniplet> sniplets = new ArrayList<ParsedSniplet>();
+		private Exception error;
+
+		private ParsedExample(CodegenOperation operation, String contentType) {
+			this.operation = operation;
+			this.contentType = contentType;
+		}
+	}
+
+	/**
+	 * Parses an example made of an array of Regga Sniplets, parsing errors are kept and reported on registration.
+	 */
+	public ParsedExample parse(CodegenOperation operation, String contentType, String example) {
+		ParsedExample parsedExample = new ParsedExample(operation, contentType);
+		try {
+			JsonParser parser = JSON_FACTORY.createParser(example);
+			try {
+				// example must be an array
+				if (parser.nextToken() != JsonToken.START_ARRAY) {
+					LOGGER.warn("Example is not an array of Regga Sniplets");
+					return parsedExample;
+				}
+				String seed = operation.httpMethod + " " + operation.path + " " + contentType + " #";
+				int index = 0;
+				JsonToken token;
+				while ((token = parser.nextToken()) != null && token != JsonToken.END_ARRAY) {
+					index++;
+					if (token != JsonToken.START_OBJECT) {
+						LOGGER.warn("Example is not of Regga Sniplet type");
+						parser.skipChildren();
+						continue;
+					}
+					ParsedSniplet parsed = parseSniplet(parser, example, seed + index);
+					if (parsed.type == null || !parsed.type.equals("sniplet")) {
+						LOGGER.warn("Example is not of Regga Sniplet type");
+						continue;
+					}
+					parsedExample.sniplets.add(parsed);
+				}
+			}
+			finally {
+				parser.close();
+			}
+		}
+		catch (Exception e) {
+			parsedExample.error = e;
+		}
+		return parsedExample;
+	}
+
+	/**
+	 * Registers the sniplets of a parsed example, in example order.
+	 * @return the number of top level sniplets registered
+	 * @throws Exception on duplicate sniplet ids, or the parsing error once the sniplets preceding it are registered
+	 */
+	public int register(ParsedExample parsedExample) throws Exception {
+		int count = 0;
+		for (ParsedSniplet parsed : parsedExample.sniplets) {
+			register(parsed, parsedExample.operation, parsedExample.contentType, ReggaSnipletType.RESPONSE);
+			count++;
+		}
+		if (parsedExample.error != null) throw parsedExample.error;
+		return count;
+	}
+
+	/**
+	 * Parses the sniplet object starting at the current token.
+	 * @param seed identifies the position of the sniplet in the spec, used with its content to derive a missing id
+	 */
+	private ParsedSniplet parseSniplet(JsonParser parser, String example, String seed) throws Exception {
+		int objectStart = (int) parser.getTokenLocation().getCharOffset();
+		ParsedSniplet parsed = new ParsedSniplet();
+		ReggaSniplet sniplet = parsed.sniplet;
+		sniplet.headers = new HashMap<String, String>();
+
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String field = parser.getCurrentName();
+			JsonToken token = parser.nextToken();
+
+			if (field.equals("x-regga-type")) parsed.type = scalarText(parser);
+			else if (field.equals("id")) sniplet.id = token == JsonToken.VALUE_STRING ? parser.getText() : skip(parser);
+			else if (field.equals("title")) sniplet.title = token == JsonToken.VALUE_STRING ? parser.getText() : skip(parser);
+			else if (field.equals("uri")) parsed.uri = scalarText(parser);
+			else if (field.equals("data")) {
+				if (token == JsonToken.VALUE_STRING) {
+					// keep the encoded literal, it is decoded when rendered
+					int start = (int) parser.getTokenLocation().getCharOffset();
+					int end = ReggaSnipletData.endOfStringLiteral(example, start);
+					sniplet.data = new ReggaSnipletData(example, start, end, ReggaSnipletData.hasEscapes(example, start, end));
+				}
+				else {
+					sniplet.data = null;
+					parser.skipChildren();
+				}
+			}
+			else if (field.equals("tags")) {
+				if (token == JsonToken.START_ARRAY) {
+					sniplet.tags = new ArrayList<String>();
+					while (parser.nextToken() != JsonToken.END_ARRAY) {
+						sniplet.tags.add(scalarText(parser));
+					}
+				}
+				else parser.skipChildren();
+			}
+			else if (field.equals("headers")) {
+				if (token == JsonToken.START_OBJECT) {
+					while (parser.nextToken() == JsonToken.FIELD_NAME) {
+						String header = parser.getCurrentName();
+						sniplet.headers.put(header, parser.nextToken() == JsonToken.VALUE_STRING ? parser.getText() : skip(parser));
+					}
+				}
+				else parser.skipChildren();
+			}
+			else if (field.equals("requestSnipletId")) sniplet.requestSnipletId = token == JsonToken.VALUE_STRING ? parser.getText() : skip(parser);
+			else if (field.equals("responseSnipletId")) sniplet.responseSnipletId = token == JsonToken.VALUE_STRING ? parser.getText() : skip(parser);
+			else if (field.equals("requestSniplet") && token == JsonToken.START_OBJECT) parsed.requestSniplet = parseSniplet(parser, example, seed + "/request");
+			else if (field.equals("responseSniplet") && token == JsonToken.START_OBJECT) parsed.responseSniplet = parseSniplet(parser, example, seed + "/response");
+			else parser.skipChildren();
+		}
+
+		// stable between runs, unlike random ids
+		if (sniplet.id == null) {
+			int objectEnd = (int) parser.getCurrentLocation().getCharOffset();
+			sniplet.id = ReggaHashes.shortId("sniplet", seed, example, objectStart, objectEnd);
+		}
+		return parsed;
+	}
+
+	private void register(ParsedSniplet parsed, CodegenOperation operation, String contentType, ReggaSnipletType snipletType) throws Exception {
+		ReggaSniplet sniplet = parsed.sniplet;
+
+		String url = null;
+		if (parsed.uri != null && (parsed.uri.startsWith("http") || parsed.uri.startsWith("ws"))) {
+			url = parsed.uri;
+		}
+		else {
+			String scheme = swagger.getSchemes() != null && swagger.getSchemes().size() > 0 ? swagger.getSchemes().get(0).toValue() : "http";
+			url = scheme + "://" + swagger.getHost() + swagger.getBasePath();
+			if (parsed.uri == null) url += operation.path;
+			else url += parsed.uri;
+		}
+		sniplet.url = url;
+
+		// nested sniplets are registered before their parent, explicit ids take precedence over nested sniplets
+		if (sniplet.requestSnipletId == null && parsed.requestSniplet != null) {
+			ReggaSniplet childSniplet = parsed.requestSniplet.sniplet;
+			register(parsed.requestSniplet, operation, contentType, ReggaSnipletType.REQUEST);
+			childSniplet.responseSnipletId = sniplet.id;
+			sniplet.requestSnipletId = childSniplet.id;
+		}
+		// TODO probably remove the following lines as one response can be related to multiple requests
+		if (sniplet.responseSnipletId == null && parsed.responseSniplet != null) {
+			ReggaSniplet childSniplet = parsed.responseSniplet.sniplet;
+			register(parsed.responseSniplet, operation, contentType, ReggaSnipletType.RESPONSE);
+			childSniplet.requestSnipletId = sniplet.id;
+			sniplet.responseSnipletId = childSniplet.id;
+		}
+
+		sniplet.contentType = contentType;
+		if (snipletType == ReggaSnipletType.REQUEST) {
+			sniplet.requestPath = operation.path;
+			sniplet.requestMethod = operation.httpMethod;
+		}
+		else if (snipletType == ReggaSnipletType.RESPONSE) {
+			sniplet.responseCode = operation.responses != null && operation.responses.size() > 0 ? operation.responses.get(0).code : null;
+		}
+
+		// indexed by (path, method, content type) on registration
+		registry.register(sniplet);
+	}
+
+	private static String scalarText(JsonParser parser) throws Exception {
+		if (parser.getCurrentToken().isScalarValue()) return parser.getText();
+		parser.skipChildren();
+		return "";
+	}
+
+	private static String skip(JsonParser parser) throws Exception {
+		parser.skipChildren();
+		return null;
+	}
+}
@@ -0,0 +1,151 @@
+package ws.regga.codegen.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ws.regga.codegen.util.ReggaCodegen.ReggaSniplet;
+
+/**
+ * Registry of the Regga Sniplets parsed from the operation examples.
+ *
+ * Sniplets are indexed by id and, for request sniplets, by (request path, request method, content type)
+ * so that the examples of an operation can be retrieved without scanning every registered sniplet.
+ * Request -> response links are resolved once, on first lookup after a registration.
+ * Repeated values are shared between the sniplets through a {@link ReggaSnipletDictionary} as they are registered.
+ * Once frozen, the registry is read-only and can be read from several threads.
+ */
+public class ReggaSnipletRegistry {
+
+	private final Map<String, ReggaSniplet> snipletsById = new LinkedHashMap<String, ReggaSniplet>();
+	private final Map<SnipletKey, List<ReggaSniplet>> requestSniplets = new HashMap<SnipletKey, List<ReggaSniplet>>();
+	private ReggaSnipletDictionary dictionary;
+	private boolean linksResolved = true;
+	private boolean frozen;
+
+	public ReggaSnipletRegistry() {
+		this(true);
+	}
+
+	// without sharing, sniplets keep the values they were parsed with, to compare the heap retained in both cases
+	ReggaSnipletRegistry(boolean shareValues) {
+		dictionary = shareValues ? new ReggaSnipletDictionary() : null;
+	}
+
+	private static final class SnipletKey {
+		private final String requestPath;
+		private final String requestMethod;
+		private final String contentType;
+		private final int hash;
+
+		private SnipletKey(String requestPath, String requestMethod, String contentType) {
+			this.requestPath = requestPath;
+			this.requestMethod = requestMethod;
+			this.contentType = contentType;
+			int h = requestPath.hashCode();
+			h = 31 * h + requestMethod.hashCode();
+			h = 31 * h + contentType.hashCode();
+			this.hash = h;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (!(o instanceof SnipletKey)) return false;
+			SnipletKey other = (SnipletKey) o;
+			return hash == other.hash
+				&& requestPath.equals(other.requestPath)
+				&& requestMethod.equals(other.requestMethod)
+				&& contentType.equals(other.contentType);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	/**
+	 * Registers a sniplet, its request path, method and content type must already be set.
+	 * @throws Exception if a sniplet with the same id is already registered
+	 */
+	public void register(ReggaSniplet sniplet) throws Exception {
+		if (frozen) throw new IllegalStateException("Regga Sniplets cannot be registered once rendering started");
+		if (snipletsById.get(sniplet.id) != null) throw new Exception("Regga Sniplet ids must be unique");
+		if (dictionary != null) compact(sniplet);
+		snipletsById.put(sniplet.id, sniplet);
+
+		if (sniplet.requestPath != null && sniplet.requestMethod != null && sniplet.contentType != null) {
+			SnipletKey key = new SnipletKey(sniplet.requestPath, sniplet.requestMethod, sniplet.contentType);
+			List<ReggaSniplet> sniplets = requestSniplets.get(key);
+			if (sniplets == null) {
+				sniplets = new ArrayList<ReggaSniplet>(2);
+				requestSniplets.put(key, sniplets);
+			}
+			sniplets.add(sniplet);
+		}
+		linksResolved = false;
+	}
+
+	public ReggaSniplet get(String id) {
+		return id != null ? snipletsById.get(id) : null;
+	}
+
+	public Map<String, ReggaSniplet> asMap() {
+		return Collections.unmodifiableMap(snipletsById);
+	}
+
+	public int size() {
+		return snipletsById.size();
+	}
+
+	/**
+	 * Returns the request sniplets of an operation in registration order, with their response sniplet resolved.
+	 */
+	public List<ReggaSniplet> getRequestSniplets(String requestPath, String requestMethod, String contentType) {
+		if (requestPath == null || requestMethod == null || contentType == null) return Collections.emptyList();
+		resolveLinks();
+		List<ReggaSniplet> sniplets = requestSniplets.get(new SnipletKey(requestPath, requestMethod, contentType));
+		return sniplets != null ? sniplets : Collections.<ReggaSniplet>emptyList();
+	}
+
+	/**
+	 * Resolves the links and forbids further registrations.
+	 */
+	public ReggaSnipletRegistry freeze() {
+		resolveLinks();
+		frozen = true;
+		dictionary = null;
+		return this;
+	}
+
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	// linked ids are replaced by the ids of the resolved sniplets, dangling ids are kept
+	private void resolveLinks() {
+		if (linksResolved) return;
+		for (ReggaSniplet sniplet : snipletsById.values()) {
+			sniplet.requestSniplet = get(sniplet.requestSnipletId);
+			if (sniplet.requestSniplet != null) sniplet.requestSnipletId = sniplet.requestSniplet.id;
+			sniplet.responseSniplet = get(sniplet.responseSnipletId);
+			if (sniplet.responseSniplet != null) sniplet.responseSnipletId = sniplet.responseSniplet.id;
+		}
+		linksResolved = true;
+	}
+
+	private void compact(ReggaSniplet sniplet) {
+		sniplet.title = dictionary.intern(sniplet.title);
+		sniplet.contentType = dictionary.intern(sniplet.contentType);
+		sniplet.requestPath = dictionary.intern(sniplet.requestPath);
+		sniplet.requestMethod = dictionary.intern(sniplet.requestMethod);
+		sniplet.responseCode = dictionary.intern(sniplet.responseCode);
+		sniplet.url = dictionary.intern(sniplet.url);
+		sniplet.tags = dictionary.internTags(sniplet.tags);
+		sniplet.headers = dictionary.internHeaders(sniplet.headers);
+	}
+}
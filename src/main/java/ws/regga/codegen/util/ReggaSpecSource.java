@@ -0,0 +1,285 @@
+package ws.regga.codegen.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+
+import io.swagger.models.Swagger;
+import io.swagger.parser.SwaggerParser;
+import io.swagger.parser.util.ClasspathHelper;
+import io.swagger.util.Yaml;
+
+/**
+ * Swagger spec read once from its location (http, file or classpath).
+ *
+ * Both the raw JsonNode (needed for the x-regga extensions and the original ordering) and the parsed Swagger model
+ * are derived from the same bytes. Remote specs are stored in a content-hashed local cache and revalidated with
+ * ETag / Last-Modified, so repeated builds only download the spec when it actually changed.
+ *
+ * Local files above {@link #MAP_THRESHOLD} bytes, including classpath resources backed by a file, are memory-mapped
+ * and streamed to the parser: the content of large specs is not copied to the heap next to the tree built from it.
+ * A mapping is held until its buffer is garbage collected, and keeps the file locked on Windows until then,
+ * so smaller specs are read to the heap and sources should not be kept once parsed.
+ */
+public class ReggaSpecSource {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ReggaSpecSource.class);
+
+	private static final int CONNECT_TIMEOUT = 30000;
+	private static final int READ_TIMEOUT = 60000;
+
+	public static final long MAP_THRESHOLD = 16 * 1024 * 1024;
+
+	private final String location;
+	private final ByteBuffer data;
+	private JsonNode jsonNode;
+	private Swagger swagger;
+
+	public ReggaSpecSource(String location, byte[] data) {
+		this(location, ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * @param data spec content, heap or mapped buffer, read from its position to its limit
+	 */
+	public ReggaSpecSource(String location, ByteBuffer data) {
+		this.location = location;
+		this.data = data.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Reads the spec at the given location.
+	 * @param cacheDir directory of the remote spec cache, null to always download remote specs
+	 */
+	public static ReggaSpecSource load(String location, File cacheDir) throws Exception {
+		location = location.replaceAll("\\\\","/");
+		ByteBuffer data;
+		if (location.toLowerCase().startsWith("http")) {
+			data = ByteBuffer.wrap(fetchRemote(location, cacheDir));
+		} else {
+			final String fileScheme = "file://";
+			Path path;
+			if (location.toLowerCase().startsWith(fileScheme)) {
+				path = Paths.get(URI.create(location));
+			} else {
+				path = Paths.get(location);
+			}
+			if (Files.exists(path)) {
+				data = map(path);
+			} else {
+				data = readResource(location);
+			}
+		}
+		return new ReggaSpecSource(location, data);
+	}
+
+	private static ByteBuffer map(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) throw new IOException("Spec " + path + " is too large: " + size + " bytes");
+			if (size <= MAP_THRESHOLD) return ByteBuffer.wrap(Files.readAllBytes(path));
+			// the mapping stays valid once the channel is closed, and is held until the buffer is garbage collected
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+		finally {
+			channel.close();
+		}
+	}
+
+	// same lookups as ClasspathHelper, resources found in a directory are mapped like local files
+	private static ByteBuffer readResource(String location) throws Exception {
+		URL url = ClasspathHelper.class.getResource(location);
+		if (url == null) url = ClasspathHelper.class.getClassLoader().getResource(location);
+		if (url == null) url = ClassLoader.getSystemResource(location);
+		if (url == null) throw new RuntimeException("Could not find " + location + " on the classpath");
+		if (url.getProtocol().equals("file")) return map(Paths.get(url.toURI()));
+		InputStream in = url.openStream();
+		try {
+			return ByteBuffer.wrap(IOUtils.toByteArray(in));
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	public String getLocation() {
+		return location;
+	}
+
+	/**
+	 * Copy of the spec content, prefer {@link #openStream()} for large specs.
+	 */
+	public byte[] getBytes() {
+		byte[] bytes = new byte[size()];
+		data.duplicate().get(bytes);
+		return bytes;
+	}
+
+	public int size() {
+		return data.remaining();
+	}
+
+	/**
+	 * Stream over the spec content, without copying it.
+	 */
+	public InputStream openStream() {
+		return new ByteBufferBackedInputStream(data.duplicate());
+	}
+
+	public synchronized JsonNode getJsonNode() throws Exception {
+		if (jsonNode == null) {
+			InputStream in = openStream();
+			try {
+				jsonNode = isJson() ? ReggaJson.TREE_READER.<JsonNode>readValue(in) : Yaml.mapper().readTree(in);
+			}
+			finally {
+				in.close();
+			}
+		}
+		return jsonNode;
+	}
+
+	public synchronized Swagger getSwagger() throws Exception {
+		if (swagger == null) {
+			swagger = new SwaggerParser().read(getJsonNode(), true);
+		}
+		return swagger;
+	}
+
+	private boolean isJson() {
+		for (int i = data.position(); i < data.limit(); i++) {
+			byte b = data.get(i);
+			if (b == ' ' || b == '\t' || b == '\r' || b == '\n') continue;
+			// skip UTF-8 BOM
+			if (b == (byte) 0xEF || b == (byte) 0xBB || b == (byte) 0xBF) continue;
+			return b == '{' || b == '[';
+		}
+		return true;
+	}
+
+	private static byte[] fetchRemote(String url, File cacheDir) throws Exception {
+		File metaFile = null;
+		Properties meta = new Properties();
+		File cachedFile = null;
+		if (cacheDir != null) {
+			metaFile = new File(cacheDir, ReggaHashes.sha256Hex(url) + ".properties");
+			if (metaFile.isFile()) {
+				InputStream in = new FileInputStream(metaFile);
+				try {
+					meta.load(in);
+				}
+				finally {
+					in.close();
+				}
+				if (meta.getProperty("sha256") != null) {
+					cachedFile = new File(cacheDir, meta.getProperty("sha256") + ".spec");
+					if (!cachedFile.isFile()) cachedFile = null;
+				}
+			}
+		}
+
+		HttpURLConnection connection;
+		int status;
+		try {
+			connection = (HttpURLConnection) new URL(url).openConnection();
+			connection.setConnectTimeout(CONNECT_TIMEOUT);
+			connection.setReadTimeout(READ_TIMEOUT);
+			connection.setRequestProperty("Accept", "application/json, application/yaml, */*");
+			if (cachedFile != null) {
+				if (meta.getProperty("etag") != null) connection.setRequestProperty("If-None-Match", meta.getProperty("etag"));
+				if (meta.getProperty("lastModified") != null) connection.setRequestProperty("If-Modified-Since", meta.getProperty("lastModified"));
+			}
+			status = connection.getResponseCode();
+		}
+		catch (IOException e) {
+			if (cachedFile == null) throw e;
+			LOGGER.warn("Could not reach " + url + ", using cached spec: " + e.getMessage());
+			return Files.readAllBytes(cachedFile.toPath());
+		}
+
+		try {
+			if (status == HttpURLConnection.HTTP_NOT_MODIFIED && cachedFile != null) {
+				LOGGER.info("Spec not modified, using cached copy of " + url);
+				return Files.readAllBytes(cachedFile.toPath());
+			}
+			if (status != HttpURLConnection.HTTP_OK) {
+				if (cachedFile == null) throw new IOException("Could not download " + url + ": HTTP " + status);
+				LOGGER.warn("Could not download " + url + " (HTTP " + status + "), using cached spec");
+				return Files.readAllBytes(cachedFile.toPath());
+			}
+
+			byte[] data;
+			InputStream in = connection.getInputStream();
+			try {
+				data = IOUtils.toByteArray(in);
+			}
+			finally {
+				in.close();
+			}
+
+			if (cacheDir != null) {
+				try {
+					store(cacheDir, metaFile, url, data, connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"));
+				}
+				catch (IOException e) {
+					LOGGER.warn("Could not cache spec " + url + ": " + e.getMessage());
+				}
+			}
+			return data;
+		}
+		finally {
+			connection.disconnect();
+		}
+	}
+
+	private static void store(File cacheDir, File metaFile, String url, byte[] data, String etag, String lastModified) throws IOException {
+		if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) throw new IOException("Could not create " + cacheDir);
+		String sha256 = ReggaHashes.sha256Hex(data);
+		File contentFile = new File(cacheDir, sha256 + ".spec");
+		if (!contentFile.isFile()) {
+			writeAtomically(contentFile, data);
+		}
+		Properties meta = new Properties();
+		meta.setProperty("url", url);
+		meta.setProperty("sha256", sha256);
+		if (etag != null) meta.setProperty("etag", etag);
+		if (lastModified != null) meta.setProperty("lastModified", lastModified);
+		File tmp = File.createTempFile("spec", ".tmp", cacheDir);
+		OutputStream out = new FileOutputStream(tmp);
+		try {
+			meta.store(out, null);
+		}
+		finally {
+			out.close();
+		}
+		Files.move(tmp.toPath(), metaFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static void writeAtomically(File file, byte[] data) throws IOException {
+		File tmp = File.createTempFile("spec", ".tmp", file.getParentFile());
+		Files.write(tmp.toPath(), data);
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
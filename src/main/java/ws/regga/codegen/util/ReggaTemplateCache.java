@@ -0,0 +1,148 @@
+package ws.regga.codegen.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.IOUtils;
+
+import com.samskivert.mustache.Mustache;
+import com.samskivert.mustache.Template;
+
+/**
+ * Compiled templates shared by the codegens of several runs, possibly on several threads.
+ *
+ * A compiled template holds no state of the run that executes it: lambdas and data come from the context.
+ * Templates are keyed by their source, partials are resolved from the template directory given here
+ * rather than from the loader of the first run, so that no run is retained by the cache.
+ */
+public class ReggaTemplateCache {
+
+	private final String templateDir;
+	private final String embeddedTemplateDir;
+	private final Map<String, Template> templates = new HashMap<String, Template>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param templateDir custom template directory, null for the embedded templates only
+	 */
+	public ReggaTemplateCache(String templateDir, String embeddedTemplateDir) {
+		this.templateDir = templateDir;
+		this.embeddedTemplateDir = embeddedTemplateDir;
+	}
+
+	/**
+	 * Compiler going through the cache, to be returned by processCompiler.
+	 */
+	public Mustache.Compiler sharing(Mustache.Compiler compiler) {
+		return new SharingCompiler(compiler.withLoader(new Mustache.TemplateLoader() {
+			@Override
+			public Reader getTemplate(String name) {
+				byte[] template = read(templateDir, embeddedTemplateDir, name + ".mustache");
+				if (template == null) throw new RuntimeException("Template " + name + ".mustache not found");
+				return new StringReader(new String(template, StandardCharsets.UTF_8));
+			}
+		}));
+	}
+
+	private Template get(Mustache.Compiler compiler, String source) {
+		String key = compiler.nullValue + '\u0000' + compiler.missingIsNull + '\u0000' + compiler.escaper.getClass().getName() + '\u0000' + source;
+		// compiled under the lock, a template takes milliseconds to compile and is compiled only once
+		synchronized (templates) {
+			Template template = templates.get(key);
+			if (template != null) {
+				hits.incrementAndGet();
+				return template;
+			}
+			misses.incrementAndGet();
+			template = compiler.compile(source);
+			templates.put(key, template);
+			return template;
+		}
+	}
+
+	/**
+	 * Template read from the template directory, falling back to the embedded templates as the generator does.
+	 * @return null if not found
+	 */
+	static byte[] read(String templateDir, String embeddedTemplateDir, String templateFile) {
+		try {
+			if (templateDir != null) {
+				File file = new File(templateDir, templateFile);
+				if (file.isFile()) return Files.readAllBytes(file.toPath());
+			}
+			InputStream in = ReggaTemplateCache.class.getClassLoader().getResourceAsStream(embeddedTemplateDir + "/" + templateFile);
+			if (in == null) return null;
+			try {
+				return IOUtils.toByteArray(in);
+			}
+			finally {
+				in.close();
+			}
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Could not read template " + templateFile, e);
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public int size() {
+		synchronized (templates) {
+			return templates.size();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "template cache: " + size() + " templates, " + getHits() + " hits, " + getMisses() + " misses";
+	}
+
+	/**
+	 * The generator sets its own loader and default value before compiling: the loader is ignored,
+	 * the settings are kept and compile looks up the cache.
+	 */
+	private class SharingCompiler extends Mustache.Compiler {
+		private final Mustache.Compiler compiler;
+
+		SharingCompiler(Mustache.Compiler compiler) {
+			super(compiler.standardsMode, compiler.strictSections, compiler.nullValue, compiler.missingIsNull, compiler.emptyStringIsFalse,
+				compiler.zeroIsFalse, compiler.formatter, compiler.escaper, compiler.loader, compiler.collector, compiler.delims);
+			this.compiler = compiler;
+		}
+		@Override
+		public Mustache.Compiler withLoader(Mustache.TemplateLoader loader) {
+			return this;
+		}
+		@Override
+		public Mustache.Compiler defaultValue(String defaultValue) {
+			return new SharingCompiler(compiler.defaultValue(defaultValue));
+		}
+		@Override
+		public Mustache.Compiler nullValue(String nullValue) {
+			return new SharingCompiler(compiler.nullValue(nullValue));
+		}
+		@Override
+		public Mustache.Compiler escapeHTML(boolean escapeHTML) {
+			return new SharingCompiler(compiler.escapeHTML(escapeHTML));
+		}
+		@Override
+		public Template compile(String source) {
+			return get(compiler, source);
+		}
+	}
+}
@@ -0,0 +1,92 @@
+// Search of the prebuilt search-index.json written by the Regga Slate generator (searchIndex option).
+// The page is not indexed in the browser: the index is loaded once and entries whose title, request,
+// summary or parameter names contain every searched word are listed, in document order.
+(function () {
+  'use strict';
+
+  var MAX_RESULTS = 50;
+  var entries = [];
+
+  function text(entry) {
+    return [entry.t, entry.r || '', entry.s || '', (entry.p || []).join(' ')].join(' ').toLowerCase();
+  }
+
+  function search(query) {
+    var words = query.toLowerCase().split(/\s+/).filter(function (word) { return word.length > 0; });
+    var results = [];
+    for (var i = 0; i < entries.length && results.length < MAX_RESULTS; i++) {
+      var matches = true;
+      for (var j = 0; j < words.length && matches; j++) {
+        matches = entries[i].text.indexOf(words[j]) >= 0;
+      }
+      if (matches) results.push(entries[i]);
+    }
+    return results;
+  }
+
+  // same markup as the lunr search of Slate, so that its stylesheets apply
+  function searchBox() {
+    var input = document.getElementById('input-search');
+    if (input) return input;
+    var toc = document.getElementById('toc');
+    if (!toc) return null;
+    var box = document.createElement('div');
+    box.className = 'search';
+    input = document.createElement('input');
+    input.type = 'text';
+    input.className = 'search';
+    input.id = 'input-search';
+    input.placeholder = 'Search';
+    box.appendChild(input);
+    var results = document.createElement('ul');
+    results.className = 'search-results';
+    toc.parentNode.insertBefore(box, toc);
+    toc.parentNode.insertBefore(results, toc);
+    return input;
+  }
+
+  function render(results, query) {
+    var list = document.querySelector('.search-results');
+    if (!list) return;
+    while (list.firstChild) list.removeChild(list.firstChild);
+    if (!query) {
+      list.className = 'search-results';
+      return;
+    }
+    if (results.length === 0) {
+      var empty = document.createElement('li');
+      empty.appendChild(document.createTextNode('No Results Found for "' + query + '"'));
+      list.appendChild(empty);
+    }
+    results.forEach(function (entry) {
+      var item = document.createElement('li');
+      var link = document.createElement('a');
+      link.href = '#' + entry.a;
+      link.appendChild(document.createTextNode(entry.t || entry.r || entry.a));
+      item.appendChild(link);
+      list.appendChild(item);
+    });
+    list.className = 'search-results visible';
+  }
+
+  function bind() {
+    var input = searchBox();
+    if (!input) return;
+    var request = new XMLHttpRequest();
+    request.open('GET', 'search-index.json');
+    request.onload = function () {
+      if (request.status !== 200 && request.status !== 0) return;
+      entries = JSON.parse(request.responseText);
+      entries.forEach(function (entry) { entry.text = text(entry); });
+    };
+    request.send();
+    input.addEventListener('keyup', function (event) {
+      if (event.keyCode === 27) input.value = '';
+      var query = input.value.trim();
+      render(query ? search(query) : [], query);
+    });
+  }
+
+  if (document.readyState === 'loading') document.addEventListener('DOMContentLoaded', bind);
+  else bind();
+})();
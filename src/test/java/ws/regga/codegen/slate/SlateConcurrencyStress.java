@@ -0,0 +1,280 @@
+package ws.regga.codegen.slate;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.FileUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import ws.regga.codegen.util.ReggaPrettifyCache;
+import ws.regga.codegen.util.ReggaSpecSource;
+import ws.regga.codegen.util.ReggaTemplateCache;
+
+/**
+ * Checks the concurrency contract of the codegen: specs rendered concurrently, each with its own codegen but
+ * sharing the template and prettify caches, give the same output as sequential runs; a codegen reused for
+ * successive specs gives the same output as fresh ones; a run started on a busy codegen is refused
+ * and a codegen whose run failed can generate again.
+ *
+ * Not run by mvn test, run it by hand after changing the codegen state or the lambdas:
+ * java -cp target/classes:target/test-classes:&lt;dependencies&gt; ws.regga.codegen.slate.SlateConcurrencyStress [specs] [threads] [rounds]
+ */
+public class SlateConcurrencyStress {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	public static void main(String[] args) throws Exception {
+		int specCount = args.length > 0 ? Integer.parseInt(args[0]) : 12;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+		final File root = Files.createTempDirectory("slate-stress").toFile();
+		final AtomicInteger runs = new AtomicInteger();
+		int failures = 0;
+		try {
+			final List<byte[]> specs = new ArrayList<byte[]>();
+			List<Map<String, String>> expected = new ArrayList<Map<String, String>>();
+			for (int i = 0; i < specCount; i++) {
+				specs.add(spec(i));
+				expected.add(generate(new SlateCodegen(), specs.get(i), options(i), new File(root, "expected-" + i)));
+			}
+
+			// fresh codegens on a thread pool, several rounds of every spec
+			final ReggaTemplateCache templateCache = new ReggaTemplateCache(null, new SlateCodegen().embeddedTemplateDir());
+			final ReggaPrettifyCache prettifyCache = new ReggaPrettifyCache();
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			List<Future<Map<String, String>>> futures = new ArrayList<Future<Map<String, String>>>();
+			long start = System.nanoTime();
+			for (int r = 0; r < rounds; r++) {
+				for (int i = 0; i < specCount; i++) {
+					final int spec = i;
+					futures.add(executor.submit(new Callable<Map<String, String>>() {
+						@Override
+						public Map<String, String> call() throws Exception {
+							SlateCodegen codegen = new SlateCodegen();
+							codegen.setTemplateCache(templateCache);
+							codegen.setPrettifyCache(prettifyCache);
+							return generate(codegen, specs.get(spec), options(spec), new File(root, "run-" + runs.incrementAndGet()));
+						}
+					}));
+				}
+			}
+			for (int i = 0; i < futures.size(); i++) {
+				if (!futures.get(i).get().equals(expected.get(i % specCount))) {
+					System.out.println("Concurrent render " + i + " of spec " + (i % specCount) + " differs from the sequential render");
+					failures++;
+				}
+			}
+			executor.shutdown();
+			System.out.println(String.format("%d concurrent renders on %d threads in %d ms, %s", futures.size(), threads, (System.nanoTime() - start) / 1000000, templateCache));
+
+			// one codegen per set of options, reused for all the specs having them
+			Map<String, SlateCodegen> reused = new LinkedHashMap<String, SlateCodegen>();
+			for (int i = 0; i < specCount; i++) {
+				String key = options(i).toString();
+				if (reused.get(key) == null) reused.put(key, new SlateCodegen());
+				if (!generate(reused.get(key), specs.get(i), options(i), new File(root, "reused-" + i)).equals(expected.get(i))) {
+					System.out.println("Render of spec " + i + " with a reused codegen differs from a fresh one");
+					failures++;
+				}
+			}
+			System.out.println(String.format("%d renders with %d reused codegens", specCount, reused.size()));
+
+			if (!busyCodegenRefused(specs.get(0), new File(root, "busy"))) {
+				System.out.println("A second run was accepted while the codegen was rendering");
+				failures++;
+			}
+
+			// the thread of the failed run stays alive while the codegen generates again
+			ExecutorService failing = Executors.newSingleThreadExecutor();
+			try {
+				SlateCodegen failed = failedCodegen(failing, specs.get(0), new File(root, "failed"));
+				if (!generate(failed, specs.get(0), options(0), new File(root, "after-failure")).equals(expected.get(0))) {
+					System.out.println("Render with a codegen whose previous run failed differs from a fresh one");
+					failures++;
+				}
+			}
+			finally {
+				failing.shutdown();
+			}
+		}
+		finally {
+			FileUtils.deleteDirectory(root);
+		}
+		if (failures > 0) {
+			System.out.println(failures + " failures");
+			System.exit(1);
+		}
+		System.out.println("All renders identical");
+	}
+
+	// codegen whose first run failed on the executor thread, it must still accept runs from other threads
+	private static SlateCodegen failedCodegen(ExecutorService executor, final byte[] spec, final File outputDir) throws Exception {
+		final AtomicInteger calls = new AtomicInteger();
+		final SlateCodegen codegen = new SlateCodegen() {
+			@Override
+			public Map<String, Object> postProcessSupportingFileData(Map<String, Object> objs) {
+				if (calls.incrementAndGet() == 1) throw new IllegalStateException("failing run");
+				return super.postProcessSupportingFileData(objs);
+			}
+		};
+		try {
+			executor.submit(new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					return generate(codegen, spec, options(0), outputDir);
+				}
+			}).get();
+			throw new IllegalStateException("The failing run succeeded");
+		}
+		catch (ExecutionException e) {
+			// expected
+		}
+		return codegen;
+	}
+
+	// the codegen waits while rendering, processOpts is called from another thread meanwhile
+	private static boolean busyCodegenRefused(final byte[] spec, final File outputDir) throws Exception {
+		final CountDownLatch rendering = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final SlateCodegen codegen = new SlateCodegen() {
+			@Override
+			public Map<String, Object> postProcessSupportingFileData(Map<String, Object> objs) {
+				rendering.countDown();
+				try {
+					release.await();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return super.postProcessSupportingFileData(objs);
+			}
+		};
+		Thread run = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					generate(codegen, spec, options(0), outputDir);
+				}
+				catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		});
+		run.start();
+		rendering.await();
+		boolean refused = false;
+		try {
+			codegen.processOpts();
+		}
+		catch (IllegalStateException e) {
+			refused = true;
+		}
+		release.countDown();
+		run.join();
+		return refused;
+	}
+
+	// files of the output directory by relative path, the incremental cache excepted
+	private static Map<String, String> generate(SlateCodegen codegen, byte[] spec, Map<String, Object> options, File outputDir) throws Exception {
+		ReggaSpecSource source = new ReggaSpecSource("stress.json", spec);
+		codegen.setInputSpec(source.getLocation());
+		codegen.setOutputDir(outputDir.getAbsolutePath());
+		codegen.setSpecSource(source);
+		codegen.additionalProperties().putAll(options);
+		codegen.generate(source.getSwagger());
+
+		final Path dir = outputDir.toPath();
+		Map<String, String> files = new TreeMap<String, String>();
+		Stream<Path> paths = Files.walk(dir);
+		try {
+			Iterator<Path> i = paths.iterator();
+			while (i.hasNext()) {
+				Path path = i.next();
+				String name = dir.relativize(path).toString();
+				if (Files.isRegularFile(path) && !name.startsWith(".regga-cache")) files.put(name, read(path));
+			}
+		}
+		finally {
+			paths.close();
+		}
+		return files;
+	}
+
+	private static String read(Path path) throws IOException {
+		return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+	}
+
+	private static Map<String, Object> options(int variant) {
+		Map<String, Object> options = new LinkedHashMap<String, Object>();
+		options.put("exampleLanguages", "shell,python");
+		options.put("splitOutput", String.valueOf(variant % 2 == 1));
+		options.put("keepOriginalOrder", String.valueOf(variant % 3 == 0));
+		options.put("parallelism", variant % 4 == 0 ? "2" : "1");
+		options.put("parallelRendering", variant % 4 == 2 ? "3" : "1");
+		return options;
+	}
+
+	// a few tags of operations with request/response sniplets, the variant changes counts and bodies:
+	// specs share paths and sniplet ids, so that state leaking from a run to the next one shows
+	private static byte[] spec(int variant) throws Exception {
+		ObjectNode spec = MAPPER.createObjectNode();
+		spec.put("swagger", "2.0");
+		spec.putObject("info").put("title", "Stress API " + variant).put("version", "1.0.0");
+		spec.put("host", "api.example.com");
+		ArrayNode tags = spec.putArray("tags");
+		ObjectNode paths = spec.putObject("paths");
+		int tagCount = 2 + variant % 3;
+		for (int t = tagCount - 1; t >= 0; t--) {
+			tags.addObject().put("name", "Tag " + t).put("description", "Tag " + t + " of spec " + variant);
+			for (int o = 0; o < 3; o++) {
+				String path = "/tag" + t + "/items" + o;
+				ObjectNode operation = paths.putObject(path).putObject(o % 2 == 0 ? "get" : "post");
+				operation.putArray("tags").add("Tag " + t);
+				operation.put("summary", "Items " + o);
+				operation.putArray("produces").add("application/json");
+				ObjectNode ok = operation.putObject("responses").putObject("200").put("description", "ok");
+				ok.putObject("schema").put("$ref", "#/definitions/Item" + (o % 2));
+				ArrayNode examples = ok.putObject("examples").putArray("application/json");
+				for (int s = 0; s < 2; s++) {
+					String id = t + "-" + o + "-" + s;
+					ObjectNode response = examples.addObject();
+					response.put("x-regga-type", "sniplet");
+					response.put("id", "response-" + id);
+					response.put("title", "Example " + s);
+					response.put("data", "{\"id\":\"" + variant + "-" + id + "\",\"values\":[" + variant + "," + t + "," + o + "],\"nested\":{\"s\":" + s + "}}");
+					ObjectNode request = response.putObject("requestSniplet");
+					request.put("id", "request-" + id);
+					request.put("uri", path + "?page=" + s);
+					request.putObject("headers").put("X-Variant", String.valueOf(variant));
+				}
+			}
+		}
+		ObjectNode definitions = spec.putObject("definitions");
+		for (int m = 0; m < 2; m++) {
+			ObjectNode properties = definitions.putObject("Item" + m).put("type", "object").putObject("properties");
+			properties.putObject("id").put("type", "string");
+			properties.putObject("next").put("$ref", "#/definitions/Item" + ((m + 1) % 2));
+		}
+		return MAPPER.writeValueAsBytes(spec);
+	}
+}
@@ -0,0 +1,77 @@
+package ws.regga.codegen.util;
+
+import java.lang.management.ManagementFactory;
+
+import io.swagger.models.HttpMethod;
+import io.swagger.models.Operation;
+import io.swagger.models.Path;
+import io.swagger.models.Swagger;
+
+/**
+ * Allocation per operation lookup, through Path.getOperationMap() and through the operation index.
+ *
+ * Run with: java -cp target/classes:target/test-classes:&lt;dependencies&gt; ws.regga.codegen.util.ReggaOperationIndexBenchmark [paths] [rounds]
+ */
+public class ReggaOperationIndexBenchmark {
+
+	public static void main(String[] args) {
+		int pathCount = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+		Swagger swagger = new Swagger();
+		String[] paths = new String[pathCount];
+		for (int i = 0; i < pathCount; i++) {
+			paths[i] = "/resources" + i + "/{id}";
+			swagger.path(paths[i], new Path().get(new Operation()).put(new Operation()).delete(new Operation()));
+		}
+		final ReggaOperationIndex index = new ReggaOperationIndex(swagger);
+		final int lookups = pathCount * 3 * rounds;
+
+		// warm up both paths before measuring
+		for (int i = 0; i < 5; i++) {
+			lookupOperationMap(swagger, paths, rounds);
+			lookupIndex(index, paths, rounds);
+		}
+
+		long before = allocatedBytes();
+		int found = lookupOperationMap(swagger, paths, rounds);
+		long operationMapBytes = allocatedBytes() - before;
+
+		before = allocatedBytes();
+		int indexFound = lookupIndex(index, paths, rounds);
+		long indexBytes = allocatedBytes() - before;
+		if (indexFound != found) throw new IllegalStateException("Index found " + indexFound + " operations, expected " + found);
+
+		System.out.println(String.format("%d lookups", lookups));
+		System.out.println(String.format("Path.getOperationMap(): %.1f bytes/lookup", (double) operationMapBytes / lookups));
+		System.out.println(String.format("ReggaOperationIndex:    %.1f bytes/lookup", (double) indexBytes / lookups));
+	}
+
+	private static int lookupOperationMap(Swagger swagger, String[] paths, int rounds) {
+		int found = 0;
+		for (int r = 0; r < rounds; r++) {
+			for (String path : paths) {
+				if (swagger.getPaths().get(path).getOperationMap().get(HttpMethod.valueOf("GET")) != null) found++;
+				if (swagger.getPaths().get(path).getOperationMap().get(HttpMethod.valueOf("PUT")) != null) found++;
+				if (swagger.getPaths().get(path).getOperationMap().get(HttpMethod.valueOf("DELETE")) != null) found++;
+			}
+		}
+		return found;
+	}
+
+	private static int lookupIndex(ReggaOperationIndex index, String[] paths, int rounds) {
+		int found = 0;
+		for (int r = 0; r < rounds; r++) {
+			for (String path : paths) {
+				if (index.getOperation(path, "GET") != null) found++;
+				if (index.getOperation(path, "PUT") != null) found++;
+				if (index.getOperation(path, "DELETE") != null) found++;
+			}
+		}
+		return found;
+	}
+
+	private static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
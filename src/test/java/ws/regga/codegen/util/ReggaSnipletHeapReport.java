@@ -0,0 +1,83 @@
+package ws.regga.codegen.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.swagger.codegen.CodegenOperation;
+import io.swagger.codegen.CodegenResponse;
+import io.swagger.models.Swagger;
+
+/**
+ * Heap retained by the sniplet registry of a large synthetic spec, the example texts excepted,
+ * with the sniplets keeping the values they were parsed with and with the values shared by the dictionary.
+ *
+ * Run with: java -cp target/classes:target/test-classes:&lt;dependencies&gt; ws.regga.codegen.util.ReggaSnipletHeapReport [operations] [sniplets per operation]
+ */
+public class ReggaSnipletHeapReport {
+
+	// the sniplet data are slices of the examples, kept reachable so that they are not counted in the registry
+	private static List<String> examples;
+
+	public static void main(String[] args) throws Exception {
+		int operationCount = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+		int snipletCount = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+		Swagger swagger = new Swagger().host("api.example.com").basePath("/v1");
+		List<CodegenOperation> operations = new ArrayList<CodegenOperation>();
+		examples = new ArrayList<String>();
+		for (int i = 0; i < operationCount; i++) {
+			CodegenOperation operation = new CodegenOperation();
+			operation.path = "/resources" + (i / 4) + "/{id}";
+			operation.httpMethod = new String[] { "GET", "PUT", "POST", "DELETE" }[i % 4];
+			CodegenResponse response = new CodegenResponse();
+			response.code = "200";
+			operation.responses = new ArrayList<CodegenResponse>();
+			operation.responses.add(response);
+			operations.add(operation);
+			examples.add(example(i, snipletCount));
+		}
+
+		System.out.println(String.format("%d sniplets of %d operations", operationCount * snipletCount * 2, operationCount));
+		report("Parsed values", swagger, operations, false);
+		report("Shared values", swagger, operations, true);
+	}
+
+	private static void report(String name, Swagger swagger, List<CodegenOperation> operations, boolean shareValues) throws Exception {
+		long before = usedHeap();
+		ReggaSnipletRegistry registry = new ReggaSnipletRegistry(shareValues);
+		ReggaSnipletParser parser = new ReggaSnipletParser(swagger, registry);
+		for (int i = 0; i < operations.size(); i++) {
+			parser.register(parser.parse(operations.get(i), "application/json", examples.get(i)));
+		}
+		registry.freeze();
+		parser = null;
+		long retained = usedHeap() - before;
+		System.out.println(String.format("%s: %.1f MB, %.1f bytes/sniplet", name, retained / 1048576.0, (double) retained / registry.size()));
+	}
+
+	// request/response pairs with the headers and tags found in real specs
+	private static String example(int operation, int snipletCount) {
+		StringBuilder example = new StringBuilder("[");
+		for (int s = 0; s < snipletCount; s++) {
+			if (s > 0) example.append(',');
+			example.append("{\"x-regga-type\":\"sniplet\",\"title\":\"Example ").append(s % 3).append("\",")
+				.append("\"tags\":[\"resources\",\"v1\"],")
+				.append("\"data\":\"{\\\"id\\\":").append(operation * snipletCount + s).append("}\",")
+				.append("\"requestSniplet\":{\"x-regga-type\":\"sniplet\",\"uri\":\"/resources").append(operation / 4).append("/").append(s).append("\",")
+				.append("\"headers\":{\"Accept\":\"application/json\",\"Authorization\":\"Bearer token\"},")
+				.append("\"tags\":[\"resources\",\"v1\"]}}");
+		}
+		return example.append(']').toString();
+	}
+
+	private static long usedHeap() throws InterruptedException {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(100);
+		}
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+}
@@ -0,0 +1,128 @@
+package ws.regga.codegen.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Checks the cache of remote specs against a local HTTP server: download then revalidation with ETag or
+ * Last-Modified (304), download again once the ETag changed, cached copy used on a 5xx response or when
+ * the server cannot be reached.
+ *
+ * Run with: java -cp target/classes:target/test-classes:&lt;dependencies&gt; ws.regga.codegen.util.ReggaSpecSourceCacheCheck
+ */
+public class ReggaSpecSourceCacheCheck {
+
+	private static int failures;
+
+	// serves the current spec, validators and status can be changed between loads, the last request is kept
+	private static class SpecHandler implements HttpHandler {
+		volatile String body;
+		volatile String etag;
+		volatile String lastModified;
+		volatile int error;
+		volatile String ifNoneMatch;
+		volatile String ifModifiedSince;
+		volatile int status;
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+			ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+			if (error != 0) status = error;
+			else if (etag != null && etag.equals(ifNoneMatch)) status = 304;
+			else if (etag == null && lastModified != null && lastModified.equals(ifModifiedSince)) status = 304;
+			else status = 200;
+			if (etag != null) exchange.getResponseHeaders().set("ETag", etag);
+			if (lastModified != null) exchange.getResponseHeaders().set("Last-Modified", lastModified);
+			byte[] data = status == 200 ? body.getBytes(StandardCharsets.UTF_8) : new byte[0];
+			exchange.sendResponseHeaders(status, status == 304 ? -1 : data.length);
+			OutputStream out = exchange.getResponseBody();
+			out.write(data);
+			out.close();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		File cacheDir = Files.createTempDirectory("spec-cache").toFile();
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		SpecHandler etagHandler = new SpecHandler();
+		SpecHandler dateHandler = new SpecHandler();
+		server.createContext("/etag.json", etagHandler);
+		server.createContext("/date.json", dateHandler);
+		server.start();
+		String base = "http://127.0.0.1:" + server.getAddress().getPort();
+		try {
+			etagHandler.body = "{\"swagger\":\"2.0\",\"info\":{\"version\":\"1\"}}";
+			etagHandler.etag = "\"v1\"";
+			check("first load downloads", load(base + "/etag.json", cacheDir), etagHandler.body, etagHandler, 200);
+			expect("first load is not conditional", etagHandler.ifNoneMatch == null);
+
+			check("second load is revalidated", load(base + "/etag.json", cacheDir), etagHandler.body, etagHandler, 304);
+			expect("second load sends the ETag", "\"v1\"".equals(etagHandler.ifNoneMatch));
+
+			etagHandler.body = "{\"swagger\":\"2.0\",\"info\":{\"version\":\"2\"}}";
+			etagHandler.etag = "\"v2\"";
+			check("changed ETag downloads again", load(base + "/etag.json", cacheDir), etagHandler.body, etagHandler, 200);
+			check("changed spec is cached", load(base + "/etag.json", cacheDir), etagHandler.body, etagHandler, 304);
+			expect("new ETag is sent", "\"v2\"".equals(etagHandler.ifNoneMatch));
+
+			dateHandler.body = "{\"swagger\":\"2.0\",\"info\":{\"version\":\"3\"}}";
+			dateHandler.lastModified = "Wed, 21 Oct 2015 07:28:00 GMT";
+			check("first load without ETag downloads", load(base + "/date.json", cacheDir), dateHandler.body, dateHandler, 200);
+			check("Last-Modified is revalidated", load(base + "/date.json", cacheDir), dateHandler.body, dateHandler, 304);
+			expect("Last-Modified is sent", dateHandler.lastModified.equals(dateHandler.ifModifiedSince));
+
+			String cached = etagHandler.body;
+			etagHandler.error = 503;
+			check("5xx uses the cached copy", load(base + "/etag.json", cacheDir), cached, etagHandler, 503);
+
+			boolean refused = false;
+			try {
+				load(base + "/etag.json", null);
+			}
+			catch (IOException e) {
+				refused = true;
+			}
+			expect("5xx without cached copy fails", refused);
+			etagHandler.error = 0;
+		}
+		finally {
+			server.stop(0);
+		}
+		try {
+			expect("unreachable server uses the cached copy", etagHandler.body.equals(load(base + "/etag.json", cacheDir)));
+		}
+		finally {
+			FileUtils.deleteDirectory(cacheDir);
+		}
+
+		if (failures > 0) {
+			System.out.println(failures + " failures");
+			System.exit(1);
+		}
+		System.out.println("Spec cache checks passed");
+	}
+
+	private static String load(String url, File cacheDir) throws Exception {
+		return new String(ReggaSpecSource.load(url, cacheDir).getBytes(), StandardCharsets.UTF_8);
+	}
+
+	private static void check(String name, String content, String expectedContent, SpecHandler handler, int expectedStatus) {
+		expect(name + " (HTTP " + handler.status + ")", content.equals(expectedContent) && handler.status == expectedStatus);
+	}
+
+	private static void expect(String name, boolean ok) {
+		System.out.println((ok ? "ok   " : "FAIL ") + name);
+		if (!ok) failures++;
+	}
+}